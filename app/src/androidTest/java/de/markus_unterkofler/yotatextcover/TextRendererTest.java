@@ -0,0 +1,52 @@
+package de.markus_unterkofler.yotatextcover;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+/**
+ * Makes sure the text renderer does not allocate once warmed up
+ */
+public class TextRendererTest extends AndroidTestCase {
+    private static final String TEXT = "Lorem ipsum\ndolor sit amet\nconsetetur";
+
+    /** Right angles (strips), the old 45° steps and free tilts (outlines) */
+    private static final int[] ROTATION_ANGLES = {0, 10, 45, 90, 135, 180, 200, 225, 270, 315, 352};
+
+    public void testRenderDoesNotAllocate() {
+        BitmapPool bitmapPool = new BitmapPool(16 * 1024 * 1024);
+        TextRenderer textRenderer = new TextRenderer(bitmapPool, new RenderMetrics(), new LineStripCache(1024 * 1024), 520, 960);
+
+        //values() clones its array, so fetch them before counting
+        OutputMode[] outputModes = OutputMode.values();
+        Dithering[] ditherings = Dithering.values();
+
+        //warm up: grow scratch buffers and fill the pool
+        renderAll(textRenderer, bitmapPool, outputModes, ditherings);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < 10; i++) {
+            renderAll(textRenderer, bitmapPool, outputModes, ditherings);
+        }
+        int allocCount = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals("Allocations in steady state", 0, allocCount);
+    }
+
+    private static void renderAll(TextRenderer textRenderer, BitmapPool bitmapPool, OutputMode[] outputModes, Dithering[] ditherings) {
+        for (OutputMode outputMode : outputModes) {
+            for (int rotationAngle : ROTATION_ANGLES) {
+                for (Dithering dithering : ditherings) {
+                    render(textRenderer, bitmapPool, rotationAngle, outputMode, dithering);
+                }
+            }
+        }
+    }
+
+    private static void render(TextRenderer textRenderer, BitmapPool bitmapPool, int rotationAngle, OutputMode outputMode, Dithering dithering) {
+        Bitmap bitmap = textRenderer.render(TEXT, Utilities.defaultTextSize, rotationAngle, TextAlignment.CENTER, WrapMode.NONE, outputMode, dithering);
+        bitmapPool.release(bitmap);
+    }
+}
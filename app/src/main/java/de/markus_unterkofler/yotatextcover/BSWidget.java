@@ -26,13 +26,15 @@ package de.markus_unterkofler.yotatextcover;
 
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
 import android.content.Context;
-import android.graphics.Bitmap;
+import android.content.Intent;
 import android.util.Log;
-import android.widget.RemoteViews;
 
-import com.yotadevices.sdk.Drawer;
-import com.yotadevices.sdk.utils.EinkUtils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Actual back screen (cover) widget
@@ -58,34 +60,149 @@ public class BSWidget extends AppWidgetProvider {
             BSWidget.context = context;
         }
 
-        RemoteViews views;
+        //also called after a reboot, when the playlist alarm is gone
+        Utilities.getPlaylistScheduler().update();
+        scheduleRefresh(appWidgetIds);
 
-        //update all widgets
-        for (int widgetId : appWidgetIds) {
-            //create remote view for widget
-            views = new RemoteViews(context.getPackageName(), R.layout.bs_widget);
+        renderAndPrerender(appWidgetIds);
+    }
+
+    /**
+     * When the first widget is added
+     *
+     * @param context Context
+     */
+    @Override
+    public void onEnabled(Context context) {
+        super.onEnabled(context);
 
-            //set waveform and dithering - maybe useless?
-            EinkUtils.setRemoteViewsWaveformAndDithering(views, R.layout.bs_widget, Drawer.Waveform.WAVEFORM_GC_FULL, Drawer.Dithering.DITHER_DEFAULT);
+        warmUp(context);
+    }
+
+    /**
+     * When a broadcast is received, handles the playlist alarm, boot and app updates
+     *
+     * @param context Context
+     * @param intent  Intent
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action) || Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            warmUp(context);
+            return;
+        }
 
-            //get preferences
-            String bigText = Utilities.getPrefsString(Utilities.prefPrefixText + widgetId, context.getString(R.string.text_default));
-            int rotationAngle = Utilities.getRotationAngleByPosition(Utilities.getPrefsInt(Utilities.prefPrefixRotation + widgetId, 0));
-            boolean centerText = Utilities.getPrefsBoolean(Utilities.prefPrefixCenterText, true);
+        if (PlaylistScheduler.ACTION_NEXT_TEXT.equals(action)) {
+            int[] playlistWidgetIds = Utilities.getPlaylistScheduler().getPlaylistWidgetIds();
+            if (playlistWidgetIds.length == 0) {
+                //stale alarm
+                Utilities.getPlaylistScheduler().update();
+                return;
+            }
 
-            try {
-                //generate and set text as image/bitmap
-                Bitmap textBitmap = Utilities.createTextBitmap(bigText, Utilities.defaultTextSize, rotationAngle, centerText);
-                views.setImageViewBitmap(R.id.bigText, textBitmap);
+            renderAndPrerender(playlistWidgetIds);
+            return;
+        }
 
-                //update UI for current widget
-                appWidgetManager.updateAppWidget(widgetId, views);
+        if (TokenScheduler.ACTION_REFRESH.equals(action)) {
+            TokenScheduler tokenScheduler = Utilities.getTokenScheduler();
+            long now = System.currentTimeMillis();
+            int[] dueWidgetIds = tokenScheduler.getDueWidgetIds(now);
+            tokenScheduler.markRefreshed(dueWidgetIds, now);
+            tokenScheduler.update();
 
-                Log.d(TAG, "Widget " + widgetId + " updated.");
-            } catch (Exception e) {
-                //bitmap update error? just ignore it
+            //widgets whose values did not change keep their frame, see RenderPipeline.render()
+            if (dueWidgetIds.length > 0) {
+                renderAndPrerender(dueWidgetIds);
             }
+            return;
         }
+
+        super.onReceive(context, intent);
+    }
+
+    /**
+     * Render all bound widgets right away, so the covers show up without waiting for the host's first update
+     * (which then finds the frames pushed already)
+     *
+     * @param context Context
+     */
+    private void warmUp(Context context) {
+        //the widget manager knows which widgets exist, the store may miss new ones and keep ones the host dropped
+        int[] widgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, BSWidget.class));
+        removeStaleConfigs(widgetIds);
+
+        //alarms are gone after a reboot or update
+        Utilities.getPlaylistScheduler().update();
+
+        scheduleRefresh(widgetIds);
+        Log.d(TAG, "Warming up " + widgetIds.length + " widgets.");
+        renderAndPrerender(widgetIds);
+    }
+
+    /**
+     * Remove the configs of widgets that are not bound anymore (dropped by the host without a delete broadcast)
+     *
+     * @param boundWidgetIds Widget IDs of all bound widgets
+     */
+    private void removeStaleConfigs(int[] boundWidgetIds) {
+        Set<Integer> bound = new HashSet<>();
+        for (int widgetId : boundWidgetIds) {
+            bound.add(widgetId);
+        }
+
+        List<Integer> stale = new ArrayList<>();
+        for (int widgetId : Utilities.getWidgetConfigStore().getWidgetIds()) {
+            if (!bound.contains(widgetId)) {
+                stale.add(widgetId);
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+
+        int[] staleWidgetIds = new int[stale.size()];
+        for (int i = 0; i < staleWidgetIds.length; i++) {
+            staleWidgetIds[i] = stale.get(i);
+        }
+        Log.d(TAG, "Removing configs of unbound widgets " + stale + ".");
+        Utilities.getWidgetConfigStore().remove(staleWidgetIds);
+        Utilities.getRenderPipeline().forget(staleWidgetIds);
+        Utilities.getTokenScheduler().forget(staleWidgetIds);
+    }
+
+    /**
+     * Schedule the next refresh of the live values of widgets that are rendered now
+     *
+     * @param appWidgetIds Widget IDs
+     */
+    private void scheduleRefresh(int[] appWidgetIds) {
+        TokenScheduler tokenScheduler = Utilities.getTokenScheduler();
+        tokenScheduler.markRefreshed(appWidgetIds, System.currentTimeMillis());
+        tokenScheduler.update();
+    }
+
+    /**
+     * Render widgets in the background and then cache their next playlist texts,
+     * keeps the broadcast alive until all is done
+     *
+     * @param appWidgetIds Widget IDs
+     */
+    private void renderAndPrerender(final int[] appWidgetIds) {
+        final PendingResult pendingResult = goAsync();
+        final RenderPipeline renderPipeline = Utilities.getRenderPipeline();
+        renderPipeline.render(appWidgetIds, new RenderPipeline.Callback() {
+            @Override
+            public void onBatchFinished() {
+                renderPipeline.prerender(appWidgetIds, new RenderPipeline.Callback() {
+                    @Override
+                    public void onBatchFinished() {
+                        pendingResult.finish();
+                    }
+                });
+            }
+        });
     }
 
     /**
@@ -99,10 +216,10 @@ public class BSWidget extends AppWidgetProvider {
         super.onDeleted(context, appWidgetIds);
 
         //remove widget prefs when widget is deleted
-        for (int widgetId : appWidgetIds) {
-            Utilities.removePref(Utilities.prefPrefixText + widgetId);
-            Utilities.removePref(Utilities.prefPrefixRotation + widgetId);
-            Utilities.removePref(Utilities.prefPrefixCenterText + widgetId);
-        }
+        Utilities.getWidgetConfigStore().remove(appWidgetIds);
+        Utilities.getRenderPipeline().forget(appWidgetIds);
+        Utilities.getPlaylistScheduler().update();
+        Utilities.getTokenScheduler().forget(appWidgetIds);
+        Utilities.getTokenScheduler().update();
     }
 }
\ No newline at end of file
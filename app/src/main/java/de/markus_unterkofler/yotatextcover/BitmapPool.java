@@ -0,0 +1,164 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of mutable bitmaps for reuse, bucketed by allocation size.
+ * Bitmaps are reconfigured to the requested size, so any pooled bitmap that is large enough can be reused.
+ */
+public class BitmapPool {
+    /** One bucket per power of two of the allocation size */
+    private static final int BUCKET_COUNT = 32;
+    private static final int BUCKET_CAPACITY = 8;
+
+    private final ArrayList<ArrayList<Bitmap>> buckets = new ArrayList<>(BUCKET_COUNT);
+    private final long maxBytes;
+    private long pooledBytes = 0;
+
+    /**
+     * Create a bitmap pool
+     *
+     * @param maxBytes Maximum number of bytes kept in the pool
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.add(new ArrayList<Bitmap>(BUCKET_CAPACITY));
+        }
+    }
+
+    /**
+     * Get a cleared bitmap, reuses a pooled one if possible
+     *
+     * @param width  Width
+     * @param height Height
+     * @param config Config
+     *
+     * @return Mutable, transparent bitmap
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bitmap size must be > 0");
+        }
+
+        int neededBytes = width * height * getBytesPerPixel(config);
+        int bucket = getBucket(neededBytes);
+
+        synchronized (this) {
+            //same bucket may hold a big enough bitmap, everything in the next one is big enough
+            for (int i = bucket; i < Math.min(bucket + 2, BUCKET_COUNT); i++) {
+                Bitmap bitmap = take(buckets.get(i), neededBytes);
+                if (bitmap != null) {
+                    bitmap.reconfigure(width, height, config);
+                    bitmap.eraseColor(Color.TRANSPARENT);
+                    return bitmap;
+                }
+            }
+        }
+
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Give a bitmap back to the pool, the bitmap must not be used by the caller anymore
+     *
+     * @param bitmap Bitmap
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        int allocationBytes = bitmap.getAllocationByteCount();
+
+        synchronized (this) {
+            ArrayList<Bitmap> bucket = buckets.get(getBucket(allocationBytes));
+            if (pooledBytes + allocationBytes <= maxBytes && bucket.size() < BUCKET_CAPACITY) {
+                bucket.add(bitmap);
+                pooledBytes += allocationBytes;
+                return;
+            }
+        }
+
+        //pool is full
+        bitmap.recycle();
+    }
+
+    /**
+     * Remove and return a big enough bitmap from a bucket
+     *
+     * @param bucket      Bucket
+     * @param neededBytes Needed allocation size
+     *
+     * @return Bitmap or null
+     */
+    private Bitmap take(ArrayList<Bitmap> bucket, int neededBytes) {
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = bucket.get(i);
+            if (bitmap.getAllocationByteCount() >= neededBytes) {
+                bucket.remove(i);
+                pooledBytes -= bitmap.getAllocationByteCount();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the bucket of an allocation size
+     *
+     * @param bytes Allocation size
+     *
+     * @return Bucket index
+     */
+    private static int getBucket(int bytes) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(bytes, 1));
+    }
+
+    /**
+     * Get bytes per pixel of a bitmap config
+     *
+     * @param config Config
+     *
+     * @return Bytes per pixel
+     */
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live values in cover texts: {time}, {date} and {battery} are replaced by their current values when rendering.
+ * Also tells when the values of a text change next, see {@link TokenScheduler}.
+ */
+public class ContentTokens {
+    public static final String TOKEN_TIME = "{time}";
+    public static final String TOKEN_DATE = "{date}";
+    public static final String TOKEN_BATTERY = "{battery}";
+
+    /** Battery changes can't be received while the app sleeps, the level is read again on this wall clock grid */
+    private static final long BATTERY_POLL_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final Context context;
+
+    /**
+     * Create content tokens
+     *
+     * @param context App context
+     */
+    public ContentTokens(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Check whether a text contains tokens
+     *
+     * @param text Text
+     *
+     * @return Has tokens?
+     */
+    public static boolean hasTokens(String text) {
+        return text.contains(TOKEN_TIME) || text.contains(TOKEN_DATE) || text.contains(TOKEN_BATTERY);
+    }
+
+    /**
+     * Get the time the values of a text change next
+     *
+     * @param text       Text
+     * @param timeMillis Time the text was expanded at
+     *
+     * @return Time or Long.MAX_VALUE if the text has no tokens
+     */
+    public static long getNextChange(String text, long timeMillis) {
+        long nextChange = Long.MAX_VALUE;
+
+        if (text.contains(TOKEN_TIME)) {
+            long minute = TimeUnit.MINUTES.toMillis(1);
+            nextChange = Math.min(nextChange, (timeMillis / minute + 1) * minute);
+        }
+        if (text.contains(TOKEN_DATE)) {
+            Calendar midnight = Calendar.getInstance();
+            midnight.setTimeInMillis(timeMillis);
+            midnight.set(Calendar.HOUR_OF_DAY, 0);
+            midnight.set(Calendar.MINUTE, 0);
+            midnight.set(Calendar.SECOND, 0);
+            midnight.set(Calendar.MILLISECOND, 0);
+            midnight.add(Calendar.DAY_OF_MONTH, 1);
+            nextChange = Math.min(nextChange, midnight.getTimeInMillis());
+        }
+        if (text.contains(TOKEN_BATTERY)) {
+            nextChange = Math.min(nextChange, (timeMillis / BATTERY_POLL_INTERVAL_MILLIS + 1) * BATTERY_POLL_INTERVAL_MILLIS);
+        }
+
+        return nextChange;
+    }
+
+    /**
+     * Replace the tokens of a text by their values
+     *
+     * @param text       Text
+     * @param timeMillis Time to show
+     *
+     * @return Text with values
+     */
+    public String expand(String text, long timeMillis) {
+        if (text.indexOf('{') < 0) {
+            return text;
+        }
+
+        Date date = new Date(timeMillis);
+        if (text.contains(TOKEN_TIME)) {
+            //follows the system's 12/24 hour setting
+            text = text.replace(TOKEN_TIME, android.text.format.DateFormat.getTimeFormat(context).format(date));
+        }
+        if (text.contains(TOKEN_DATE)) {
+            text = text.replace(TOKEN_DATE, android.text.format.DateFormat.getDateFormat(context).format(date));
+        }
+        if (text.contains(TOKEN_BATTERY)) {
+            text = text.replace(TOKEN_BATTERY, getBatteryLevel() + "%");
+        }
+        return text;
+    }
+
+    /**
+     * Read the battery level from the sticky battery broadcast
+     *
+     * @return Level in percent (0 if unknown)
+     */
+    private int getBatteryLevel() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return 0;
+        }
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        return scale > 0 ? Math.round(level * 100f / scale) : 0;
+    }
+}
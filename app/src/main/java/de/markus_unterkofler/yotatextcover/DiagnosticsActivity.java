@@ -0,0 +1,60 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Shows the render metrics, to collect them without this screen see {@link MetricsProvider}
+ */
+public class DiagnosticsActivity extends Activity {
+    /**
+     * Activity onCreate method
+     *
+     * @param savedInstanceState Saved state
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+    }
+
+    /**
+     * Refresh metrics whenever the activity comes to front
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        StringWriter metrics = new StringWriter();
+        Utilities.getRenderMetrics().dump(new PrintWriter(metrics));
+        ((TextView) findViewById(R.id.metrics)).setText(metrics.toString());
+    }
+}
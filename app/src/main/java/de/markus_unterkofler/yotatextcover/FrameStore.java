@@ -0,0 +1,349 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Hands frames to the widget host as files instead of inline bitmaps.
+ * Inline bitmaps are copied into the binder transaction on every update (and big frames hit its 1MB limit),
+ * a frame file is written once and the host reads it through {@link FrameProvider}.
+ * Files are named by render key, so every distinct frame gets its own URI (the host only reloads changed URIs)
+ * and equal frames are written only once. Frames no widget shows anymore are deleted.
+ * Alpha only frames are written as palette PNGs (white with 256 alpha levels), 1 byte per pixel like the bitmap,
+ * so they are neither converted to ARGB nor run through the full PNG encoder.
+ * Only the widget hosts get read access to the frames they are handed, see {@link FrameProvider}.
+ */
+public class FrameStore {
+    private static final String TAG = FrameStore.class.getSimpleName();
+
+    private static final String FRAME_DIR = "frames";
+    private static final String FRAME_SUFFIX = ".png";
+    private static final Pattern FRAME_NAME = Pattern.compile("[0-9a-f]+\\" + FRAME_SUFFIX);
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int PNG_COLOR_TYPE_PALETTE = 3;
+
+    /**
+     * Frames not shown anymore are kept this long, the host may still apply an older update
+     * and widgets not pushed since a process restart are not tracked yet
+     */
+    private static final long STALE_FRAME_AGE_MILLIS = 10 * 60 * 1000;
+
+    private final Context context;
+    private final File frameDir;
+    private final RenderMetrics renderMetrics;
+
+    /** Packages that may host the widgets, looked up on first use (guarded by this) */
+    private Set<String> hostPackages;
+
+    /**
+     * Create a frame store
+     *
+     * @param context       App context
+     * @param renderMetrics Metrics to record write timings in
+     */
+    public FrameStore(Context context, RenderMetrics renderMetrics) {
+        this.context = context;
+        this.frameDir = getFrameDir(context);
+        this.renderMetrics = renderMetrics;
+
+        if (!frameDir.isDirectory() && !frameDir.mkdirs()) {
+            Log.w(TAG, "Could not create frame dir " + frameDir);
+        }
+    }
+
+    /**
+     * Write a frame unless it is stored already
+     *
+     * @param renderKey Render key of the frame
+     * @param bitmap    Frame bitmap
+     *
+     * @return Content URI of the frame
+     *
+     * @throws IOException Frame could not be written
+     */
+    public Uri store(String renderKey, Bitmap bitmap) throws IOException {
+        File file = new File(frameDir, renderKey + FRAME_SUFFIX);
+        if (file.isFile()) {
+            //still in use, keep it away from garbage collection
+            file.setLastModified(System.currentTimeMillis());
+            return grantToHosts(getFrameUri(context, file.getName()));
+        }
+
+        long startTime = System.nanoTime();
+
+        //render threads may store the same frame at once, so every thread gets its own temp file
+        File tempFile = new File(frameDir, renderKey + "." + Thread.currentThread().getId() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            if (bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+                //Android's PNG encoder has no alpha only format, the raw alpha goes into a palette PNG
+                ByteBuffer pixels = ByteBuffer.allocate(bitmap.getByteCount());
+                bitmap.copyPixelsToBuffer(pixels);
+                writeAlphaPng(pixels.array(), bitmap.getWidth(), bitmap.getHeight(), bitmap.getRowBytes(), out);
+            } else if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("Could not encode frame " + renderKey);
+            }
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+        } catch (IOException e) {
+            RenderCache.deleteFile(tempFile);
+            throw e;
+        } finally {
+            RenderCache.closeQuietly(out);
+        }
+
+        renderMetrics.recordTime(RenderMetrics.Stage.FRAME_STORE, startTime);
+        return grantToHosts(getFrameUri(context, file.getName()));
+    }
+
+    /**
+     * Delete frames that are not shown anymore
+     *
+     * @param shownRenderKeys Render keys of the frames widgets show
+     */
+    public void collectGarbage(Set<String> shownRenderKeys) {
+        File[] files = frameDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long staleTime = System.currentTimeMillis() - STALE_FRAME_AGE_MILLIS;
+        for (File file : files) {
+            String name = file.getName();
+            String renderKey = name.substring(0, name.indexOf('.') < 0 ? name.length() : name.indexOf('.'));
+            if (!shownRenderKeys.contains(renderKey) && file.lastModified() < staleTime) {
+                if (FRAME_NAME.matcher(name).matches()) {
+                    context.revokeUriPermission(getFrameUri(context, name), Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                }
+                RenderCache.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Write alpha values as PNG: a palette of 256 white entries with alpha 0-255, so every pixel is its alpha value.
+     * Rows are not filtered and deflated at the fastest level, the mostly empty frames compress well anyway.
+     *
+     * @param pixels Alpha values, one byte per pixel
+     * @param width  Width in pixels
+     * @param height Height in pixels
+     * @param stride Bytes per row
+     * @param out    Output stream (not closed)
+     *
+     * @throws IOException Writing failed
+     */
+    static void writeAlphaPng(byte[] pixels, int width, int height, int stride, OutputStream out) throws IOException {
+        out.write(PNG_SIGNATURE);
+
+        ByteArrayChunk header = new ByteArrayChunk(13);
+        header.data.writeInt(width);
+        header.data.writeInt(height);
+        header.data.writeByte(8);
+        header.data.writeByte(PNG_COLOR_TYPE_PALETTE);
+        header.data.writeByte(0);
+        header.data.writeByte(0);
+        header.data.writeByte(0);
+        header.writeTo("IHDR", out);
+
+        ByteArrayChunk palette = new ByteArrayChunk(3 * 256);
+        ByteArrayChunk transparency = new ByteArrayChunk(256);
+        for (int i = 0; i < 256; i++) {
+            palette.data.writeByte(255);
+            palette.data.writeByte(255);
+            palette.data.writeByte(255);
+            transparency.data.writeByte(i);
+        }
+        palette.writeTo("PLTE", out);
+        transparency.writeTo("tRNS", out);
+
+        ByteArrayChunk image = new ByteArrayChunk(width * height / 16);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream imageData = new DeflaterOutputStream(image.bytes, deflater, 64 * 1024);
+            for (int y = 0; y < height; y++) {
+                //filter type none
+                imageData.write(0);
+                imageData.write(pixels, y * stride, width);
+            }
+            imageData.finish();
+        } finally {
+            deflater.end();
+        }
+        image.writeTo("IDAT", out);
+
+        new ByteArrayChunk(0).writeTo("IEND", out);
+    }
+
+    /**
+     * A PNG chunk collected in memory, so its length is known before it is written
+     */
+    private static class ByteArrayChunk {
+        private final ByteArrayOutputStream bytes;
+        private final DataOutputStream data;
+
+        ByteArrayChunk(int size) {
+            bytes = new ByteArrayOutputStream(size);
+            data = new DataOutputStream(bytes);
+        }
+
+        /**
+         * Write the chunk with its length, type and CRC
+         *
+         * @param type Chunk type
+         * @param out  Output stream
+         *
+         * @throws IOException Writing failed
+         */
+        void writeTo(String type, OutputStream out) throws IOException {
+            byte[] typeBytes = type.getBytes("US-ASCII");
+            byte[] content = bytes.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(typeBytes);
+            crc.update(content);
+
+            DataOutputStream chunk = new DataOutputStream(out);
+            chunk.writeInt(content.length);
+            chunk.write(typeBytes);
+            chunk.write(content);
+            chunk.writeInt((int) crc.getValue());
+            chunk.flush();
+        }
+    }
+
+    /**
+     * Grant the widget hosts read access to a frame (grants do not survive a reboot, so this is done on every push)
+     *
+     * @param frameUri Frame URI
+     *
+     * @return Frame URI
+     */
+    private Uri grantToHosts(Uri frameUri) {
+        for (String hostPackage : getHostPackages()) {
+            context.grantUriPermission(hostPackage, frameUri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+        return frameUri;
+    }
+
+    /**
+     * Get the packages that may host the widgets: apps allowed to bind widgets (e.g. the back screen launcher)
+     * and the home screens
+     *
+     * @return Package names
+     */
+    private synchronized Set<String> getHostPackages() {
+        if (hostPackages == null) {
+            PackageManager packageManager = context.getPackageManager();
+            hostPackages = new HashSet<>();
+
+            List<PackageInfo> binders = packageManager.getPackagesHoldingPermissions(new String[]{Manifest.permission.BIND_APPWIDGET}, 0);
+            for (PackageInfo binder : binders) {
+                hostPackages.add(binder.packageName);
+            }
+
+            Intent homeIntent = new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME);
+            List<ResolveInfo> homes = packageManager.queryIntentActivities(homeIntent, 0);
+            for (ResolveInfo home : homes) {
+                hostPackages.add(home.activityInfo.packageName);
+            }
+
+            Log.d(TAG, "Widget hosts: " + hostPackages);
+        }
+        return hostPackages;
+    }
+
+    /**
+     * Get the directory frames are stored in
+     *
+     * @param context Context
+     *
+     * @return Directory (app private, not the cache dir, the host may need a frame any time)
+     */
+    static File getFrameDir(Context context) {
+        return new File(context.getFilesDir(), FRAME_DIR);
+    }
+
+    /**
+     * Get a frame file by its name, only plain frame names are accepted
+     *
+     * @param context Context
+     * @param name    Frame file name
+     *
+     * @return File or null if the name is not a frame name
+     */
+    static File getFrameFile(Context context, String name) {
+        if (name == null || !FRAME_NAME.matcher(name).matches()) {
+            return null;
+        }
+        return new File(getFrameDir(context), name);
+    }
+
+    /**
+     * Get the content URI of a frame
+     *
+     * @param context Context
+     * @param name    Frame file name
+     *
+     * @return Content URI
+     */
+    private static Uri getFrameUri(Context context, String name) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(FrameProvider.getAuthority(context))
+                .appendPath(name)
+                .build();
+    }
+}
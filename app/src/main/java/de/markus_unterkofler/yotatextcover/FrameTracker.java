@@ -0,0 +1,199 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.yotadevices.sdk.Drawer;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers the last frame pushed to each widget, to skip pushes that would not change anything
+ * and to use a lighter (partial) e-ink refresh when only a small part of the frame changed.
+ */
+public class FrameTracker {
+    /** Frames are compared tile by tile */
+    private static final int TILE_COLUMNS = 8;
+    private static final int TILE_ROWS = 16;
+
+    /** Up to this fraction of changed tiles a partial refresh is enough */
+    private static final float PARTIAL_REFRESH_MAX_CHANGE = 0.25f;
+
+    /** Force a full refresh after this many partial ones, e-ink ghosting adds up */
+    private static final int MAX_PARTIAL_REFRESHES = 5;
+
+    /**
+     * Fingerprint of a pushed frame
+     */
+    public static class Frame {
+        private final String renderKey;
+        private final int width;
+        private final int height;
+        private final long[] tileHashes;
+
+        private Frame(String renderKey, int width, int height, long[] tileHashes) {
+            this.renderKey = renderKey;
+            this.width = width;
+            this.height = height;
+            this.tileHashes = tileHashes;
+        }
+    }
+
+    /** Last frame and partial refreshes since the last full one, by widget ID (guarded by this) */
+    private final SparseArray<Frame> lastFrames = new SparseArray<>();
+    private final SparseIntArray partialRefreshes = new SparseIntArray();
+
+    /**
+     * Create the fingerprint of a frame
+     *
+     * @param renderKey Render cache key of the frame (same key means same pixels)
+     * @param bitmap    Frame bitmap
+     *
+     * @return Frame fingerprint
+     */
+    public static Frame createFrame(String renderKey, Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int rowBytes = bitmap.getRowBytes();
+        int bytesPerPixel = rowBytes / width;
+
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.getByteCount());
+        bitmap.copyPixelsToBuffer(buffer);
+        byte[] pixels = buffer.array();
+
+        //byte offset where each tile column ends
+        int[] columnEnds = new int[TILE_COLUMNS];
+        for (int column = 0; column < TILE_COLUMNS; column++) {
+            columnEnds[column] = (column + 1) * width / TILE_COLUMNS * bytesPerPixel;
+        }
+
+        long[] tileHashes = new long[TILE_COLUMNS * TILE_ROWS];
+        for (int y = 0; y < height; y++) {
+            int tileRowOffset = (y * TILE_ROWS / height) * TILE_COLUMNS;
+            int rowOffset = y * rowBytes;
+            int x = 0;
+            for (int column = 0; column < TILE_COLUMNS; column++) {
+                long hash = tileHashes[tileRowOffset + column];
+                for (; x < columnEnds[column]; x++) {
+                    hash = 31 * hash + pixels[rowOffset + x];
+                }
+                tileHashes[tileRowOffset + column] = hash;
+            }
+        }
+
+        return new Frame(renderKey, width, height, tileHashes);
+    }
+
+    /**
+     * Check if a widget already shows a frame
+     *
+     * @param widgetId  Widget ID
+     * @param renderKey Render key of the frame
+     *
+     * @return Already shown?
+     */
+    public synchronized boolean isShowing(int widgetId, String renderKey) {
+        Frame lastFrame = lastFrames.get(widgetId);
+        return lastFrame != null && lastFrame.renderKey.equals(renderKey);
+    }
+
+    /**
+     * Decide how to refresh a widget for a new frame and remember the frame as pushed
+     *
+     * @param widgetId Widget ID
+     * @param frame    New frame
+     *
+     * @return Waveform to push the frame with, or null if the widget already shows this frame
+     */
+    public synchronized Drawer.Waveform track(int widgetId, Frame frame) {
+        Frame lastFrame = lastFrames.get(widgetId);
+        if (lastFrame != null && lastFrame.renderKey.equals(frame.renderKey)) {
+            return null;
+        }
+
+        lastFrames.put(widgetId, frame);
+
+        int partialCount = partialRefreshes.get(widgetId, 0);
+        if (partialCount < MAX_PARTIAL_REFRESHES && getChangedFraction(lastFrame, frame) <= PARTIAL_REFRESH_MAX_CHANGE) {
+            partialRefreshes.put(widgetId, partialCount + 1);
+            return Drawer.Waveform.WAVEFORM_GC_PARTIAL;
+        }
+
+        partialRefreshes.put(widgetId, 0);
+        return Drawer.Waveform.WAVEFORM_GC_FULL;
+    }
+
+    /**
+     * Get the render keys of all frames widgets show
+     *
+     * @return Render keys
+     */
+    public synchronized Set<String> getShownRenderKeys() {
+        Set<String> renderKeys = new HashSet<>();
+        for (int i = 0; i < lastFrames.size(); i++) {
+            renderKeys.add(lastFrames.valueAt(i).renderKey);
+        }
+        return renderKeys;
+    }
+
+    /**
+     * Forget widgets, their next frame is always pushed
+     *
+     * @param widgetIds Widget IDs
+     */
+    public synchronized void forget(int[] widgetIds) {
+        for (int widgetId : widgetIds) {
+            lastFrames.remove(widgetId);
+            partialRefreshes.delete(widgetId);
+        }
+    }
+
+    /**
+     * Get the fraction of tiles that differ between two frames
+     *
+     * @param oldFrame Old frame (may be null)
+     * @param newFrame New frame
+     *
+     * @return Changed fraction, 1 if the frames are not comparable
+     */
+    private static float getChangedFraction(Frame oldFrame, Frame newFrame) {
+        if (oldFrame == null || oldFrame.width != newFrame.width || oldFrame.height != newFrame.height) {
+            return 1;
+        }
+
+        int changedTiles = 0;
+        for (int i = 0; i < newFrame.tileHashes.length; i++) {
+            if (oldFrame.tileHashes[i] != newFrame.tileHashes[i]) {
+                changedTiles++;
+            }
+        }
+        return (float) changedTiles / newFrame.tileHashes.length;
+    }
+}
@@ -0,0 +1,221 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.Path;
+import android.util.LruCache;
+
+/**
+ * Memory cache of single rendered text lines (strips), shared by all text renderers.
+ * Consecutive frames (edits, playlists) mostly share lines, composing a frame from cached strips
+ * only rasterizes the lines that changed.
+ * Strips are unrotated alpha masks, drawn with the paint color.
+ * Also keeps the glyph outlines of recent lines for the angles strips can not be used at.
+ */
+public class LineStripCache {
+    private static final int OUTLINE_CACHE_SIZE = 64;
+
+    private final LruCache<Key, Strip> cache;
+    /** Glyph outlines at the line origin, independent of the rotation angle and line position */
+    private final LruCache<Key, Path> outlines = new LruCache<>(OUTLINE_CACHE_SIZE);
+
+    /**
+     * Create a line strip cache
+     *
+     * @param memoryBudgetBytes Maximum number of strip bytes kept in memory
+     */
+    public LineStripCache(int memoryBudgetBytes) {
+        //evicted strips may still be drawn by another renderer, so they are left to the GC instead of the bitmap pool
+        cache = new LruCache<Key, Strip>(memoryBudgetBytes) {
+            @Override
+            protected int sizeOf(Key key, Strip strip) {
+                return strip.bitmap != null ? strip.bitmap.getByteCount() : 1;
+            }
+        };
+    }
+
+    /**
+     * Get a cached strip
+     *
+     * @param key Key, may be a reused probe key
+     *
+     * @return Strip or null
+     */
+    public Strip get(Key key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Add a strip
+     *
+     * @param key   Key, must not be changed afterwards
+     * @param strip Strip
+     */
+    public void put(Key key, Strip strip) {
+        cache.put(key, strip);
+    }
+
+    /**
+     * Get cached glyph outlines of a line
+     *
+     * @param key Key, may be a reused probe key
+     *
+     * @return Outlines or null
+     */
+    public Path getOutline(Key key) {
+        return outlines.get(key);
+    }
+
+    /**
+     * Add the glyph outlines of a line
+     *
+     * @param key     Key, must not be changed afterwards
+     * @param outline Outlines, must not be changed afterwards (drawn by several renderers at once)
+     */
+    public void putOutline(Key key, Path outline) {
+        outlines.put(key, outline);
+    }
+
+    /**
+     * Drop all strips and outlines
+     */
+    public void clear() {
+        cache.evictAll();
+        outlines.evictAll();
+    }
+
+    /**
+     * A rendered line: alpha mask of the line's ink and its position relative to the line origin on the baseline
+     */
+    public static class Strip {
+        private final Bitmap bitmap;
+        private final int left;
+        private final int top;
+
+        /**
+         * Create a strip
+         *
+         * @param bitmap ALPHA_8 bitmap or null for lines without ink (e.g. blank lines)
+         * @param left   X of the bitmap relative to the line origin
+         * @param top    Y of the bitmap relative to the baseline
+         */
+        public Strip(Bitmap bitmap, int left, int top) {
+            this.bitmap = bitmap;
+            this.left = left;
+            this.top = top;
+        }
+
+        /**
+         * Get the alpha mask
+         *
+         * @return Bitmap or null for lines without ink
+         */
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        /**
+         * Get x of the bitmap relative to the line origin
+         *
+         * @return Left
+         */
+        public int getLeft() {
+            return left;
+        }
+
+        /**
+         * Get y of the bitmap relative to the baseline
+         *
+         * @return Top
+         */
+        public int getTop() {
+            return top;
+        }
+    }
+
+    /**
+     * Line key: line content and text size (typeface and color are fixed), also keys the line outlines.
+     * Refers to a part of a text, so a probe key can be set up without copying the line.
+     */
+    public static class Key {
+        private String text;
+        private int start;
+        private int end;
+        private float textSize;
+        private int hash;
+
+        /**
+         * Set the key
+         *
+         * @param text     Text
+         * @param start    Line start
+         * @param end      Line end (exclusive)
+         * @param textSize Text size
+         *
+         * @return This key
+         */
+        public Key set(String text, int start, int end, float textSize) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.textSize = textSize;
+
+            int result = Float.floatToIntBits(textSize);
+            for (int i = start; i < end; i++) {
+                result = 31 * result + text.charAt(i);
+            }
+            hash = result;
+            return this;
+        }
+
+        /**
+         * Get an immutable copy that does not hold on to the whole text
+         *
+         * @return Key
+         */
+        public Key copy() {
+            return new Key().set(text.substring(start, end), 0, end - start, textSize);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key that = (Key) o;
+            return hash == that.hash
+                    && textSize == that.textSize
+                    && end - start == that.end - that.start
+                    && text.regionMatches(start, that.text, that.start, end - start);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
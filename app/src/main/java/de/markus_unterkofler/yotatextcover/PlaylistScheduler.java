@@ -0,0 +1,128 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Schedules the switch to the next playlist text.
+ * All widgets share one inexact repeating alarm, so the system can batch it with other wake ups and
+ * all widgets are updated during the same wake up.
+ */
+public class PlaylistScheduler {
+    private static final String TAG = PlaylistScheduler.class.getSimpleName();
+
+    /** Broadcast to {@link BSWidget} when playlist texts are due */
+    public static final String ACTION_NEXT_TEXT = "de.markus_unterkofler.yotatextcover.action.NEXT_TEXT";
+
+    private final Context context;
+    private final WidgetConfigStore widgetConfigStore;
+
+    /** Interval of the scheduled alarm (0 if none, guarded by this) */
+    private long scheduledInterval = 0;
+
+    /**
+     * Create a playlist scheduler
+     *
+     * @param context           App context
+     * @param widgetConfigStore Widget configs
+     */
+    public PlaylistScheduler(Context context, WidgetConfigStore widgetConfigStore) {
+        this.context = context;
+        this.widgetConfigStore = widgetConfigStore;
+    }
+
+    /**
+     * Get all widgets with a playlist
+     *
+     * @return Widget IDs
+     */
+    public int[] getPlaylistWidgetIds() {
+        List<Integer> playlistWidgetIds = new ArrayList<>();
+        for (int widgetId : widgetConfigStore.getWidgetIds()) {
+            if (widgetConfigStore.get(widgetId).hasPlaylist()) {
+                playlistWidgetIds.add(widgetId);
+            }
+        }
+
+        int[] widgetIds = new int[playlistWidgetIds.size()];
+        for (int i = 0; i < widgetIds.length; i++) {
+            widgetIds[i] = playlistWidgetIds.get(i);
+        }
+        return widgetIds;
+    }
+
+    /**
+     * (Re)schedule the alarm after widget configs changed, runs at the shortest interval of all playlists.
+     * Alarms are gone after a reboot, widgets get an update then and call this again.
+     */
+    public synchronized void update() {
+        long interval = 0;
+        for (int widgetId : getPlaylistWidgetIds()) {
+            long widgetInterval = widgetConfigStore.get(widgetId).getPlaylistIntervalMillis();
+            interval = interval == 0 ? widgetInterval : Math.min(interval, widgetInterval);
+        }
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = createPendingIntent();
+
+        if (interval == 0) {
+            alarmManager.cancel(pendingIntent);
+            scheduledInterval = 0;
+            Log.d(TAG, "No playlists, alarm cancelled.");
+            return;
+        }
+
+        //repeating alarms keep going, only replace it if the interval changed
+        if (interval == scheduledInterval) {
+            return;
+        }
+
+        //first alarm on the next slot boundary, see WidgetConfig.getTextAt()
+        long now = System.currentTimeMillis();
+        long firstAlarm = (now / interval + 1) * interval;
+        alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, firstAlarm, interval, pendingIntent);
+        scheduledInterval = interval;
+        Log.d(TAG, "Playlist alarm every " + interval + "ms.");
+    }
+
+    /**
+     * Create the alarm's intent, equal for every call so the alarm is replaced and not added
+     *
+     * @return Pending intent
+     */
+    private PendingIntent createPendingIntent() {
+        Intent intent = new Intent(context, BSWidget.class);
+        intent.setAction(ACTION_NEXT_TEXT);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -0,0 +1,399 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Two-tier (memory and disk) cache for rendered text bitmaps.
+ * Entries are addressed by a hash of all render inputs, so equal inputs always hit the same entry.
+ * Disk entries hold raw pixels, loading them is a plain copy without decoding.
+ * Handed out bitmaps are pinned until released, evicted bitmaps go back to the bitmap pool once unpinned.
+ */
+public class RenderCache {
+    private static final String TAG = RenderCache.class.getSimpleName();
+
+    /** Bump whenever the rendering output changes, old disk entries are ignored then */
+    private static final int RENDER_VERSION = 5;
+
+    private static final String DISK_CACHE_DIR = "render";
+    private static final String DISK_CACHE_SUFFIX = ".raw";
+    private static final long DISK_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskCacheDir;
+    private final BitmapPool bitmapPool;
+    private final RenderMetrics renderMetrics;
+
+    /** Pin count of handed out bitmaps and bitmaps evicted while pinned (guarded by this) */
+    private final Map<Bitmap, Integer> pinCounts = new HashMap<>();
+    private final Set<Bitmap> evictedPinned = new HashSet<>();
+
+    /**
+     * Create a render cache
+     *
+     * @param context           Context
+     * @param memoryBudgetBytes Maximum number of bitmap bytes kept in memory
+     * @param bitmapPool        Pool for evicted bitmaps
+     * @param renderMetrics     Metrics to count hits and misses in
+     */
+    public RenderCache(Context context, int memoryBudgetBytes, BitmapPool bitmapPool, RenderMetrics renderMetrics) {
+        this.bitmapPool = bitmapPool;
+        this.renderMetrics = renderMetrics;
+
+        memoryCache = new LruCache<String, Bitmap>(memoryBudgetBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldBitmap, Bitmap newBitmap) {
+                recycle(oldBitmap);
+            }
+        };
+
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        if (!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs()) {
+            Log.w(TAG, "Could not create disk cache dir " + diskCacheDir);
+        }
+    }
+
+    /**
+     * Create the cache key for a set of render inputs
+     *
+     * @param text           Text
+     * @param textSizePixels Text size
+     * @param rotationAngle  Rotation angle
+     * @param alignment      Alignment of the lines
+     * @param wrapMode       Word wrapping to the screen
+     * @param outputMode     Output pixel format
+     * @param dithering      Dithering
+     *
+     * @return Cache key (hex encoded hash)
+     */
+    public static String createKey(String text, float textSizePixels, int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering) {
+        String input = RENDER_VERSION + "|" + textSizePixels + "|" + rotationAngle + "|" + alignment + "|" + wrapMode + "|" + outputMode + "|" + dithering + "|" + text;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(input.getBytes("UTF-8"));
+
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            //both are guaranteed to exist on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get and pin a cached bitmap, looks into memory first and then on disk
+     *
+     * @param key Cache key
+     *
+     * @return Bitmap (do not modify, hand it back with {@link #release(Bitmap)}) or null if not cached
+     */
+    public Bitmap acquire(String key) {
+        synchronized (this) {
+            Bitmap bitmap = memoryCache.get(key);
+            if (bitmap != null) {
+                pin(bitmap);
+                renderMetrics.count(RenderMetrics.Event.CACHE_HIT_MEMORY);
+                return bitmap;
+            }
+        }
+
+        File file = getDiskFile(key);
+        if (!file.isFile()) {
+            renderMetrics.count(RenderMetrics.Event.CACHE_MISS);
+            return null;
+        }
+
+        Bitmap bitmap = readFromDisk(file);
+        if (bitmap == null) {
+            //broken file, get rid of it
+            deleteFile(file);
+            renderMetrics.count(RenderMetrics.Event.CACHE_MISS);
+            return null;
+        }
+
+        //mark as recently used and promote into memory
+        file.setLastModified(System.currentTimeMillis());
+        renderMetrics.count(RenderMetrics.Event.CACHE_HIT_DISK);
+        synchronized (this) {
+            pin(bitmap);
+            memoryCache.put(key, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Put a bitmap into memory and disk cache, the bitmap stays pinned for the caller
+     *
+     * @param key    Cache key
+     * @param bitmap Bitmap (must not be modified afterwards, hand it back with {@link #release(Bitmap)})
+     */
+    public void put(String key, Bitmap bitmap) {
+        put(key, bitmap, true);
+    }
+
+    /**
+     * Put a bitmap into the memory cache and optionally the disk cache, the bitmap stays pinned for the caller
+     *
+     * @param key     Cache key
+     * @param bitmap  Bitmap (must not be modified afterwards, hand it back with {@link #release(Bitmap)})
+     * @param persist Also write it to disk? (not for short lived frames, e.g. with the current time)
+     */
+    public void put(String key, Bitmap bitmap, boolean persist) {
+        synchronized (this) {
+            pin(bitmap);
+            memoryCache.put(key, bitmap);
+        }
+        if (persist) {
+            writeToDisk(key, bitmap);
+        }
+    }
+
+    /**
+     * Unpin a bitmap from {@link #acquire(String)} or {@link #put(String, Bitmap)}
+     *
+     * @param bitmap Bitmap
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Integer pinCount = pinCounts.get(bitmap);
+        if (pinCount == null) {
+            return;
+        }
+
+        if (pinCount > 1) {
+            pinCounts.put(bitmap, pinCount - 1);
+            return;
+        }
+
+        pinCounts.remove(bitmap);
+        if (evictedPinned.remove(bitmap)) {
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Pin a bitmap (caller holds the lock)
+     *
+     * @param bitmap Bitmap
+     */
+    private void pin(Bitmap bitmap) {
+        Integer pinCount = pinCounts.get(bitmap);
+        pinCounts.put(bitmap, pinCount == null ? 1 : pinCount + 1);
+    }
+
+    /**
+     * Give a bitmap that left the memory cache back to the pool, or defer it while it is pinned
+     *
+     * @param bitmap Bitmap
+     */
+    private synchronized void recycle(Bitmap bitmap) {
+        if (pinCounts.containsKey(bitmap)) {
+            evictedPinned.add(bitmap);
+        } else {
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Read a bitmap from the disk cache
+     *
+     * @param file Disk cache file
+     *
+     * @return Bitmap or null if the file is broken
+     */
+    private Bitmap readFromDisk(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            int width = in.readInt();
+            int height = in.readInt();
+            Bitmap.Config config = Bitmap.Config.valueOf(in.readUTF());
+
+            //raw pixels, no decoding needed
+            Bitmap bitmap = bitmapPool.acquire(width, height, config);
+            byte[] pixels = new byte[bitmap.getByteCount()];
+            try {
+                in.readFully(pixels);
+            } catch (IOException e) {
+                bitmapPool.release(bitmap);
+                throw e;
+            }
+            bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+
+            return bitmap;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not read disk cache entry " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write a bitmap to the disk cache (write to temp file and rename, so readers never see half a file)
+     *
+     * @param key    Cache key
+     * @param bitmap Bitmap
+     */
+    private void writeToDisk(String key, Bitmap bitmap) {
+        File file = getDiskFile(key);
+        if (file.isFile()) {
+            return;
+        }
+
+        //render threads may write the same key at once, so every thread gets its own temp file
+        File tempFile = new File(diskCacheDir, key + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            ByteBuffer pixels = ByteBuffer.allocate(bitmap.getByteCount());
+            bitmap.copyPixelsToBuffer(pixels);
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(bitmap.getWidth());
+            out.writeInt(bitmap.getHeight());
+            out.writeUTF(bitmap.getConfig().name());
+            out.write(pixels.array());
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write disk cache entry", e);
+            deleteFile(tempFile);
+        } finally {
+            closeQuietly(out);
+        }
+
+        trimDiskCache();
+    }
+
+    /**
+     * Delete least recently used disk entries until the disk budget is met
+     */
+    private void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= DISK_CACHE_MAX_BYTES) {
+            return;
+        }
+
+        //oldest first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            if (totalBytes <= DISK_CACHE_MAX_BYTES) {
+                break;
+            }
+            totalBytes -= file.length();
+            deleteFile(file);
+        }
+    }
+
+    /**
+     * Get the disk cache file for a key
+     *
+     * @param key Cache key
+     *
+     * @return File
+     */
+    private File getDiskFile(String key) {
+        return new File(diskCacheDir, key + DISK_CACHE_SUFFIX);
+    }
+
+    /**
+     * Close a stream and ignore errors
+     *
+     * @param closeable Stream (may be null)
+     */
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Delete a file, log on failure
+     *
+     * @param file File
+     */
+    static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+}
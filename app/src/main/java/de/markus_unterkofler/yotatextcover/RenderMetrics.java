@@ -0,0 +1,267 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free timing, size and event metrics of the render pipeline.
+ * Recording never blocks or allocates, so it is cheap enough for every render.
+ */
+public class RenderMetrics {
+    /**
+     * Timed stages (microseconds)
+     */
+    public enum Stage {
+        PREFS_READ("prefs read"),
+        LAYOUT("measure/layout"),
+        DRAW("draw+rotate"),
+        QUANTIZE("quantize/dither"),
+        RENDER("render total"),
+        FRAME_STORE("frame store write"),
+        UPDATE_WIDGET("updateAppWidget");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Measured sizes (bytes)
+     */
+    public enum Size {
+        BITMAP("bitmap bytes"),
+        PARCEL("RemoteViews parcel bytes");
+
+        private final String label;
+
+        Size(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Counted events
+     */
+    public enum Event {
+        CACHE_HIT_MEMORY("cache hit (memory)"),
+        CACHE_HIT_DISK("cache hit (disk)"),
+        CACHE_MISS("cache miss"),
+        STRIP_HIT("line strip hit"),
+        STRIP_MISS("line strip miss"),
+        RENDER_SUPERSEDED("render superseded"),
+        PUSH_SKIPPED("push skipped (unchanged)"),
+        PUSH_PARTIAL("push partial refresh"),
+        PUSH_FULL("push full refresh"),
+        RENDER_FAILED("render failed");
+
+        private final String label;
+
+        Event(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+    private final Histogram[] sizes = new Histogram[Size.values().length];
+    private final AtomicLongArray events = new AtomicLongArray(Event.values().length);
+
+    /** Failures by exception class and the message of the last one */
+    private final ConcurrentHashMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private volatile String lastFailure = null;
+
+    /**
+     * Create empty metrics
+     */
+    public RenderMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Histogram();
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Record the duration of a stage
+     *
+     * @param stage          Stage
+     * @param startNanoTime  System.nanoTime() when the stage started
+     */
+    public void recordTime(Stage stage, long startNanoTime) {
+        stages[stage.ordinal()].record((System.nanoTime() - startNanoTime) / 1000);
+    }
+
+    /**
+     * Record a size
+     *
+     * @param size  Size kind
+     * @param bytes Bytes
+     */
+    public void recordSize(Size size, long bytes) {
+        sizes[size.ordinal()].record(bytes);
+    }
+
+    /**
+     * Count an event
+     *
+     * @param event Event
+     */
+    public void count(Event event) {
+        events.incrementAndGet(event.ordinal());
+    }
+
+    /**
+     * Count a render failure with its cause
+     *
+     * @param throwable Cause
+     */
+    public void recordFailure(Throwable throwable) {
+        count(Event.RENDER_FAILED);
+
+        String cause = throwable.getClass().getSimpleName();
+        AtomicLong counter = failures.get(cause);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = failures.putIfAbsent(cause, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+
+        lastFailure = cause + ": " + throwable.getMessage();
+    }
+
+    /**
+     * Write all metrics in a human readable form (like dumpsys)
+     *
+     * @param writer Writer
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Stages (microseconds):");
+        for (Stage stage : Stage.values()) {
+            stages[stage.ordinal()].dump(writer, stage.label);
+        }
+
+        writer.println();
+        writer.println("Sizes (bytes):");
+        for (Size size : Size.values()) {
+            sizes[size.ordinal()].dump(writer, size.label);
+        }
+
+        writer.println();
+        writer.println("Events:");
+        for (Event event : Event.values()) {
+            writer.println("  " + event.label + ": " + events.get(event.ordinal()));
+        }
+
+        writer.println();
+        writer.println("Failures:");
+        for (Map.Entry<String, AtomicLong> failure : failures.entrySet()) {
+            writer.println("  " + failure.getKey() + ": " + failure.getValue().get());
+        }
+        writer.println("  last: " + (lastFailure == null ? "-" : lastFailure));
+        writer.flush();
+    }
+
+    /**
+     * Lock-free histogram with power of two buckets
+     */
+    private static class Histogram {
+        private static final int BUCKET_COUNT = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Record a value
+         *
+         * @param value Value (>= 0)
+         */
+        void record(long value) {
+            value = Math.max(value, 0);
+
+            //bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        /**
+         * Get the upper bound of the bucket that holds a percentile
+         *
+         * @param percentile Percentile (0-1)
+         *
+         * @return Upper bound
+         */
+        long getPercentile(double percentile) {
+            long total = count.get();
+            long threshold = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        /**
+         * Write the histogram summary
+         *
+         * @param writer Writer
+         * @param label  Label
+         */
+        void dump(PrintWriter writer, String label) {
+            long total = count.get();
+            if (total == 0) {
+                writer.println("  " + label + ": -");
+                return;
+            }
+
+            writer.println("  " + label + ": n=" + total
+                    + " avg=" + (sum.get() / total)
+                    + " p50<=" + getPercentile(0.5)
+                    + " p90<=" + getPercentile(0.9)
+                    + " p99<=" + getPercentile(0.99)
+                    + " max=" + max.get());
+        }
+    }
+}
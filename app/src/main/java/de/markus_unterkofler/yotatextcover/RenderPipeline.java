@@ -0,0 +1,543 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+import android.widget.RemoteViews;
+
+import com.yotadevices.sdk.Drawer;
+import com.yotadevices.sdk.utils.EinkUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders widgets in parallel on a small background thread pool.
+ * A newer render request for a widget cancels the older one and only the latest result is pushed to the widget.
+ * Widgets sharing the same config are rendered once per request, widgets already showing a frame are not pushed again.
+ * With a {@link FrameStore} frames are handed over as file URIs, otherwise as inline bitmaps.
+ */
+public class RenderPipeline {
+    private static final String TAG = RenderPipeline.class.getSimpleName();
+
+    /** Max. number of render threads, rendering is memory heavy so don't use all cores on big devices */
+    private static final int MAX_THREADS = 4;
+
+    /** Measure the parcel size of every n-th remote views only, flattening them is not free */
+    private static final int PARCEL_SAMPLE_RATE = 8;
+
+    /**
+     * Callback for a batch of render requests
+     */
+    public interface Callback {
+        /**
+         * Called once all widgets of a batch are either pushed, superseded or failed (on a render thread)
+         */
+        void onBatchFinished();
+    }
+
+    private final Context context;
+    private final RenderMetrics renderMetrics;
+    private final FrameStore frameStore;
+    private final ExecutorService executor;
+    private final AtomicInteger deliveryCount = new AtomicInteger();
+
+    /** Latest render task per widget ID (guarded by this) */
+    private final SparseArray<RenderTask> latestTasks = new SparseArray<>();
+
+    private final FrameTracker frameTracker = new FrameTracker();
+
+    /**
+     * Create a render pipeline
+     *
+     * @param context       App context
+     * @param renderMetrics Metrics to record timings, sizes and failures in
+     * @param frameStore    Store to hand frames over as files (null to send them inline)
+     */
+    public RenderPipeline(Context context, RenderMetrics renderMetrics, FrameStore frameStore) {
+        this.context = context;
+        this.renderMetrics = renderMetrics;
+        this.frameStore = frameStore;
+
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS));
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG + "-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Render and push a batch of widgets in the background.
+     * Widgets that show the same frame are rendered only once and share their remote views.
+     *
+     * @param appWidgetIds Widget IDs
+     * @param callback     Called once the whole batch is done (may be null)
+     */
+    public void render(int[] appWidgetIds, Callback callback) {
+        //group widget IDs by render key, settings that do not change the pixels (intervals) do not split groups,
+        //all of them show the playlist text of the same moment
+        long now = System.currentTimeMillis();
+        WidgetConfigStore widgetConfigStore = Utilities.getWidgetConfigStore();
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        Map<String, WidgetConfig> groupConfigs = new HashMap<>();
+        Map<String, String> groupTexts = new HashMap<>();
+        for (int widgetId : appWidgetIds) {
+            long startTime = System.nanoTime();
+            WidgetConfig config = widgetConfigStore.get(widgetId);
+            renderMetrics.recordTime(RenderMetrics.Stage.PREFS_READ, startTime);
+
+            String text = Utilities.getDisplayText(config, now);
+            String renderKey = Utilities.createRenderKey(config, text);
+            List<Integer> group = groups.get(renderKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(renderKey, group);
+                groupConfigs.put(renderKey, config);
+                groupTexts.put(renderKey, text);
+            }
+            group.add(widgetId);
+        }
+
+        Batch batch = new Batch(groups.size(), callback);
+        if (groups.isEmpty()) {
+            batch.finish();
+            return;
+        }
+
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            String renderKey = group.getKey();
+            RenderTask task = new RenderTask(groupConfigs.get(renderKey), groupTexts.get(renderKey), renderKey, batch);
+
+            synchronized (this) {
+                //newer request wins, older render is obsolete
+                List<Integer> changedWidgetIds = new ArrayList<>();
+                for (int widgetId : group.getValue()) {
+                    supersede(widgetId);
+                    latestTasks.remove(widgetId);
+
+                    //no need to render for widgets that already show this frame
+                    if (!frameTracker.isShowing(widgetId, renderKey)) {
+                        changedWidgetIds.add(widgetId);
+                    }
+                }
+
+                task.widgetIds = toArray(changedWidgetIds);
+                task.pendingWidgets = task.widgetIds.length;
+                for (int widgetId : task.widgetIds) {
+                    latestTasks.put(widgetId, task);
+                }
+            }
+
+            if (task.widgetIds.length > 0) {
+                executor.execute(task);
+            } else {
+                Log.d(TAG, "Widgets " + group.getValue() + " unchanged, skipping render.");
+                batch.finish();
+            }
+        }
+
+        Log.d(TAG, appWidgetIds.length + " widgets, " + groups.size() + " distinct renders.");
+    }
+
+    /**
+     * Render the next playlist texts of widgets into the render cache, so the next switch only has to push them
+     *
+     * @param appWidgetIds Widget IDs (widgets without playlist or with live values are skipped)
+     * @param callback     Called once all texts are cached (may be null)
+     */
+    public void prerender(int[] appWidgetIds, Callback callback) {
+        //distinct texts of the next playlist slot
+        long now = System.currentTimeMillis();
+        WidgetConfigStore widgetConfigStore = Utilities.getWidgetConfigStore();
+        Map<String, WidgetConfig> nextTexts = new LinkedHashMap<>();
+        for (int widgetId : appWidgetIds) {
+            WidgetConfig config = widgetConfigStore.get(widgetId);
+            //live values of the next slot are unknown yet
+            if (config.hasPlaylist() && !config.hasTokens()) {
+                String text = config.getNextTextAt(now);
+                nextTexts.put(Utilities.createRenderKey(config, text), config);
+            }
+        }
+
+        final Batch batch = new Batch(nextTexts.size(), callback);
+        if (nextTexts.isEmpty()) {
+            batch.finish();
+            return;
+        }
+
+        for (final Map.Entry<String, WidgetConfig> nextText : nextTexts.entrySet()) {
+            final WidgetConfig config = nextText.getValue();
+            final String text = config.getNextTextAt(now);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //cached in memory and on disk, nothing else to do with it
+                        Utilities.releaseTextBitmap(Utilities.getTextBitmap(config, text));
+                    } catch (Exception e) {
+                        renderMetrics.recordFailure(e);
+                        Log.w(TAG, "Pre-render of next playlist text failed.", e);
+                    } finally {
+                        batch.finish();
+                    }
+                }
+            });
+        }
+
+        Log.d(TAG, nextTexts.size() + " next playlist texts to pre-render.");
+    }
+
+    /**
+     * Push a frame to widgets right away, cancels all pending renders for these widgets
+     *
+     * @param appWidgetIds Widget IDs
+     * @param renderKey    Render key of the frame
+     * @param textBitmap   Text bitmap
+     * @param dithering    Dithering the frame was rendered with
+     */
+    public void push(int[] appWidgetIds, String renderKey, Bitmap textBitmap, Dithering dithering) {
+        FrameTracker.Frame frame = FrameTracker.createFrame(renderKey, textBitmap);
+        Uri frameUri = storeFrame(renderKey, textBitmap);
+
+        synchronized (this) {
+            for (int widgetId : appWidgetIds) {
+                supersede(widgetId);
+                latestTasks.remove(widgetId);
+            }
+            deliver(appWidgetIds, textBitmap, frameUri, frame, dithering);
+        }
+        collectGarbage();
+    }
+
+    /**
+     * Forget everything about deleted widgets
+     *
+     * @param appWidgetIds Widget IDs
+     */
+    public void forget(int[] appWidgetIds) {
+        synchronized (this) {
+            for (int widgetId : appWidgetIds) {
+                supersede(widgetId);
+                latestTasks.remove(widgetId);
+            }
+        }
+        frameTracker.forget(appWidgetIds);
+        collectGarbage();
+    }
+
+    /**
+     * Create the remote views for a widget bitmap
+     *
+     * @param context     Context
+     * @param textBitmap  Text bitmap
+     * @param frameUri    URI of the stored text bitmap, or null to send the bitmap inline
+     * @param waveform    E-ink waveform used to refresh the widget
+     * @param dithering   Dithering the bitmap was rendered with
+     *
+     * @return Remote views
+     */
+    public static RemoteViews createViews(Context context, Bitmap textBitmap, Uri frameUri, Drawer.Waveform waveform, Dithering dithering) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.bs_widget);
+
+        //set waveform and dithering, the panel only dithers full alpha bitmaps, dithering the app's output again would blur it
+        Drawer.Dithering panelDithering = dithering == Dithering.NONE ? Drawer.Dithering.DITHER_DEFAULT : Drawer.Dithering.DITHER_NONE;
+        EinkUtils.setRemoteViewsWaveformAndDithering(views, R.layout.bs_widget, waveform, panelDithering);
+
+        if (frameUri != null) {
+            views.setImageViewUri(R.id.bigText, frameUri);
+        } else {
+            views.setImageViewBitmap(R.id.bigText, textBitmap);
+        }
+
+        //alpha only bitmaps are drawn in the paint color (black), tint them white like the ARGB text
+        if (textBitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+            views.setInt(R.id.bigText, "setColorFilter", Color.WHITE);
+        }
+
+        return views;
+    }
+
+    /**
+     * Take a widget away from its pending render task, cancels the task if no widget is left (caller holds the lock)
+     *
+     * @param widgetId Widget ID
+     */
+    private void supersede(int widgetId) {
+        RenderTask staleTask = latestTasks.get(widgetId);
+        if (staleTask != null && --staleTask.pendingWidgets == 0) {
+            staleTask.cancel(false);
+            renderMetrics.count(RenderMetrics.Event.RENDER_SUPERSEDED);
+        }
+    }
+
+    /**
+     * Pushes a frame to all widgets of a task that have not been superseded in the meantime
+     *
+     * @param task       Render task
+     * @param textBitmap Rendered text bitmap
+     * @param frame      Frame fingerprint
+     */
+    private void pushIfLatest(RenderTask task, Bitmap textBitmap, FrameTracker.Frame frame) {
+        int[] widgetIds;
+
+        //writing the file is slow, do it before taking the lock (a superseded frame is simply collected later)
+        Uri frameUri = task.isCancelled() ? null : storeFrame(task.renderKey, textBitmap);
+
+        synchronized (this) {
+            List<Integer> latestWidgetIds = new ArrayList<>(task.widgetIds.length);
+            for (int widgetId : task.widgetIds) {
+                if (latestTasks.get(widgetId) == task) {
+                    latestTasks.remove(widgetId);
+                    latestWidgetIds.add(widgetId);
+                }
+            }
+
+            if (task.isCancelled() || latestWidgetIds.isEmpty()) {
+                Log.d(TAG, "Render for widgets " + Arrays.toString(task.widgetIds) + " superseded, dropping it.");
+                return;
+            }
+
+            widgetIds = toArray(latestWidgetIds);
+            deliver(widgetIds, textBitmap, frameUri, frame, task.dithering);
+        }
+        collectGarbage();
+
+        Log.d(TAG, "Widgets " + Arrays.toString(widgetIds) + " updated.");
+    }
+
+    /**
+     * Push a frame to widgets that do not show it yet, with a partial refresh where only little changed (caller holds the lock)
+     *
+     * @param widgetIds  Widget IDs
+     * @param textBitmap Text bitmap
+     * @param frameUri   URI of the stored text bitmap (null to send it inline)
+     * @param frame      Frame fingerprint
+     * @param dithering  Dithering the frame was rendered with
+     */
+    private void deliver(int[] widgetIds, Bitmap textBitmap, Uri frameUri, FrameTracker.Frame frame, Dithering dithering) {
+        List<Integer> fullRefreshIds = new ArrayList<>();
+        List<Integer> partialRefreshIds = new ArrayList<>();
+
+        for (int widgetId : widgetIds) {
+            Drawer.Waveform waveform = frameTracker.track(widgetId, frame);
+            if (waveform == Drawer.Waveform.WAVEFORM_GC_FULL) {
+                fullRefreshIds.add(widgetId);
+                renderMetrics.count(RenderMetrics.Event.PUSH_FULL);
+            } else if (waveform != null) {
+                partialRefreshIds.add(widgetId);
+                renderMetrics.count(RenderMetrics.Event.PUSH_PARTIAL);
+            } else {
+                renderMetrics.count(RenderMetrics.Event.PUSH_SKIPPED);
+            }
+        }
+
+        if (!fullRefreshIds.isEmpty()) {
+            update(toArray(fullRefreshIds), createViews(context, textBitmap, frameUri, Drawer.Waveform.WAVEFORM_GC_FULL, dithering));
+        }
+        if (!partialRefreshIds.isEmpty()) {
+            update(toArray(partialRefreshIds), createViews(context, textBitmap, frameUri, Drawer.Waveform.WAVEFORM_GC_PARTIAL, dithering));
+        }
+    }
+
+    /**
+     * Store a frame for the widget host, falls back to inline bitmaps without a frame store or if storing fails
+     *
+     * @param renderKey  Render key of the frame
+     * @param textBitmap Text bitmap
+     *
+     * @return Frame URI or null to send the bitmap inline
+     */
+    private Uri storeFrame(String renderKey, Bitmap textBitmap) {
+        if (frameStore == null) {
+            return null;
+        }
+
+        try {
+            return frameStore.store(renderKey, textBitmap);
+        } catch (IOException e) {
+            renderMetrics.recordFailure(e);
+            Log.w(TAG, "Could not store frame, sending it inline.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Delete stored frames no widget shows anymore
+     */
+    private void collectGarbage() {
+        if (frameStore != null) {
+            frameStore.collectGarbage(frameTracker.getShownRenderKeys());
+        }
+    }
+
+    /**
+     * Hand remote views over to the widget host and measure the cost of it
+     *
+     * @param widgetIds Widget IDs
+     * @param views     Remote views
+     */
+    private void update(int[] widgetIds, RemoteViews views) {
+        if (deliveryCount.incrementAndGet() % PARCEL_SAMPLE_RATE == 1) {
+            Parcel parcel = Parcel.obtain();
+            try {
+                views.writeToParcel(parcel, 0);
+                renderMetrics.recordSize(RenderMetrics.Size.PARCEL, parcel.dataSize());
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        long startTime = System.nanoTime();
+        AppWidgetManager.getInstance(context).updateAppWidget(widgetIds, views);
+        renderMetrics.recordTime(RenderMetrics.Stage.UPDATE_WIDGET, startTime);
+    }
+
+    /**
+     * Convert a list of widget IDs to an array
+     *
+     * @param widgetIds Widget IDs
+     *
+     * @return Widget IDs
+     */
+    private static int[] toArray(List<Integer> widgetIds) {
+        int[] array = new int[widgetIds.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = widgetIds.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Renders one config and pushes the result to all its widgets when done
+     */
+    private class RenderTask extends FutureTask<Bitmap> {
+        private final String renderKey;
+        private final Dithering dithering;
+        private final Batch batch;
+
+        /** Widgets to push to and widgets not superseded yet (guarded by the pipeline) */
+        private int[] widgetIds;
+        private int pendingWidgets;
+
+        RenderTask(final WidgetConfig config, final String text, String renderKey, Batch batch) {
+            super(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    long startTime = System.nanoTime();
+                    Bitmap textBitmap = Utilities.getTextBitmap(config, text);
+                    renderMetrics.recordTime(RenderMetrics.Stage.RENDER, startTime);
+                    return textBitmap;
+                }
+            });
+            this.renderKey = renderKey;
+            this.dithering = config.getDithering();
+            this.batch = batch;
+        }
+
+        @Override
+        protected void set(Bitmap textBitmap) {
+            super.set(textBitmap);
+
+            //cancelled while rendering, the result is dropped and done() has already run
+            if (isCancelled()) {
+                Utilities.releaseTextBitmap(textBitmap);
+            }
+        }
+
+        @Override
+        protected void done() {
+            //called once for completed, failed and cancelled tasks
+            Bitmap textBitmap = null;
+            try {
+                if (!isCancelled()) {
+                    textBitmap = get();
+                    pushIfLatest(this, textBitmap, FrameTracker.createFrame(renderKey, textBitmap));
+                }
+            } catch (ExecutionException e) {
+                //render failed, keep the old frame but remember why
+                renderMetrics.recordFailure(e.getCause() != null ? e.getCause() : e);
+                Log.w(TAG, "Render for widgets " + Arrays.toString(widgetIds) + " failed.", e.getCause());
+            } catch (Exception e) {
+                //bitmap update error, keep the old frame but remember why
+                renderMetrics.recordFailure(e);
+                Log.w(TAG, "Update of widgets " + Arrays.toString(widgetIds) + " failed.", e);
+            } finally {
+                if (textBitmap != null) {
+                    Utilities.releaseTextBitmap(textBitmap);
+                }
+                batch.finish();
+            }
+        }
+    }
+
+    /**
+     * Counts the unfinished tasks of a render request
+     */
+    private static class Batch {
+        private final AtomicInteger remaining;
+        private final Callback callback;
+
+        Batch(int size, Callback callback) {
+            this.remaining = new AtomicInteger(size);
+            this.callback = callback;
+        }
+
+        void finish() {
+            if (remaining.decrementAndGet() <= 0 && callback != null) {
+                callback.onBatchFinished();
+            }
+        }
+    }
+}
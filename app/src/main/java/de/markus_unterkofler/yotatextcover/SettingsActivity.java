@@ -28,22 +28,39 @@ import android.app.Activity;
 import android.appwidget.AppWidgetManager;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
-import android.widget.RemoteViews;
+import android.widget.CompoundButton;
+import android.widget.ImageView;
+import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 
-import com.yotadevices.sdk.Drawer;
-import com.yotadevices.sdk.utils.EinkUtils;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Widget settings (YotaHub)
  */
 public class SettingsActivity extends Activity {
+    /** Wait for a pause in typing before rendering the preview */
+    private static final long PREVIEW_DELAY_MS = 250;
+
+    /** Preview resolution relative to the back screen */
+    private static final float PREVIEW_SCALE = 0.25f;
+
+    /** Tilt slider snaps to the 45° steps within this many degrees */
+    private static final int ROTATION_SNAP_ANGLE = 2;
+
     private Intent intent = null;
 
     /** Identifier of Widget that is on a front screen (into YotaHub) */
@@ -52,6 +69,25 @@ public class SettingsActivity extends Activity {
     /** Identifier of Widget that is on a back screen */
     private int bsWidgetId = AppWidgetManager.INVALID_APPWIDGET_ID;
 
+    /**
+     * Renders previews and the final bitmap, always on the same thread so the final render reuses the layout of the
+     * last preview (see {@link TextLayout#layout(String, float, int, TextAlignment, WrapMode)})
+     */
+    private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler();
+
+    /** Pending preview render and its generation, results of older generations are dropped (UI thread only) */
+    private Future<?> previewTask = null;
+    private int previewGeneration = 0;
+    private Bitmap previewBitmap = null;
+
+    private final Runnable previewRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startPreview(readConfig());
+        }
+    };
+
     /**
      * Activity onCreate method
      *
@@ -79,20 +115,126 @@ public class SettingsActivity extends Activity {
 
         //get view objects
         TextView editText = (TextView) this.findViewById(R.id.editText);
-        Spinner spinner = (Spinner) this.findViewById(R.id.rotationAngle);
-        CheckBox centerTextBox = (CheckBox) this.findViewById(R.id.centerText);
+        SeekBar rotationAngleBar = (SeekBar) this.findViewById(R.id.rotationAngle);
+        Spinner alignmentSpinner = (Spinner) this.findViewById(R.id.alignment);
+        Spinner wrapModeSpinner = (Spinner) this.findViewById(R.id.wrapMode);
+        CheckBox autoFitBox = (CheckBox) this.findViewById(R.id.autoFit);
+        Spinner ditheringSpinner = (Spinner) this.findViewById(R.id.dithering);
+        Spinner playlistIntervalSpinner = (Spinner) this.findViewById(R.id.playlistInterval);
+        Spinner refreshIntervalSpinner = (Spinner) this.findViewById(R.id.refreshInterval);
+
+        //get current settings
+        WidgetConfig config = Utilities.getWidgetConfigStore().get(bsWidgetId);
 
         //set text
-        editText.setText(Utilities.getPrefsString(Utilities.prefPrefixText + bsWidgetId, getString(R.string.text_default)));
+        editText.setText(config.getText());
+
+        //set rotation angle slider
+        rotationAngleBar.setProgress(config.getRotationAngle());
+        showRotationAngle(config.getRotationAngle());
+
+        //set alignment spinner
+        ArrayAdapter alignmentAdapter = ArrayAdapter.createFromResource(this, R.array.settings_alignments, android.R.layout.simple_spinner_item);
+        alignmentAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        alignmentSpinner.setAdapter(alignmentAdapter);
+        alignmentSpinner.setSelection(config.getAlignment().ordinal());
+
+        //set wrap mode spinner
+        ArrayAdapter wrapModeAdapter = ArrayAdapter.createFromResource(this, R.array.settings_wrapModes, android.R.layout.simple_spinner_item);
+        wrapModeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        wrapModeSpinner.setAdapter(wrapModeAdapter);
+        wrapModeSpinner.setSelection(config.getWrapMode().ordinal());
+
+        //set auto fit checkbox
+        autoFitBox.setChecked(config.isAutoFit());
+
+        //set dithering spinner
+        ArrayAdapter ditheringAdapter = ArrayAdapter.createFromResource(this, R.array.settings_ditherings, android.R.layout.simple_spinner_item);
+        ditheringAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        ditheringSpinner.setAdapter(ditheringAdapter);
+        ditheringSpinner.setSelection(config.getDithering().ordinal());
+
+        //set playlist interval spinner
+        ArrayAdapter playlistIntervalAdapter = ArrayAdapter.createFromResource(this, R.array.settings_playlistIntervals, android.R.layout.simple_spinner_item);
+        playlistIntervalAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        playlistIntervalSpinner.setAdapter(playlistIntervalAdapter);
+        playlistIntervalSpinner.setSelection(getIntervalPosition(R.array.settings_playlistIntervalMinutes, config.getPlaylistInterval()));
+
+        //set refresh interval spinner
+        ArrayAdapter refreshIntervalAdapter = ArrayAdapter.createFromResource(this, R.array.settings_refreshIntervals, android.R.layout.simple_spinner_item);
+        refreshIntervalAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        refreshIntervalSpinner.setAdapter(refreshIntervalAdapter);
+        refreshIntervalSpinner.setSelection(getIntervalPosition(R.array.settings_refreshIntervalMinutes, config.getRefreshInterval()));
+
+        //live preview, re-rendered whenever a setting changes
+        startPreview(config);
+        editText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                schedulePreview();
+            }
+        });
+        AdapterView.OnItemSelectedListener selectedListener = new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                schedulePreview();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        };
+        alignmentSpinner.setOnItemSelectedListener(selectedListener);
+        wrapModeSpinner.setOnItemSelectedListener(selectedListener);
+        ditheringSpinner.setOnItemSelectedListener(selectedListener);
+        playlistIntervalSpinner.setOnItemSelectedListener(selectedListener);
+        refreshIntervalSpinner.setOnItemSelectedListener(selectedListener);
+        CompoundButton.OnCheckedChangeListener checkedListener = new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                schedulePreview();
+            }
+        };
+        autoFitBox.setOnCheckedChangeListener(checkedListener);
+        rotationAngleBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                int rotationAngle = snapRotationAngle(progress);
+                if (fromUser && rotationAngle != progress) {
+                    seekBar.setProgress(rotationAngle);
+                    return;
+                }
+
+                //tilting only refills the cached outlines, so follow the slider without waiting
+                showRotationAngle(rotationAngle);
+                startPreview(readConfig());
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
 
-        //set rotation angle spinner
-        ArrayAdapter adapter = ArrayAdapter.createFromResource(this, R.array.settings_rotationAngles, android.R.layout.simple_spinner_item);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        spinner.setAdapter(adapter);
-        spinner.setSelection(Utilities.getPrefsInt(Utilities.prefPrefixRotation + bsWidgetId, 0));
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
 
-        //set center checkbox
-        centerTextBox.setChecked(Utilities.getPrefsBoolean(Utilities.prefPrefixCenterText, true));
+        //hidden diagnostics screen
+        this.findViewById(R.id.rotationAngleLabel).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                startActivity(new Intent(SettingsActivity.this, DiagnosticsActivity.class));
+                return true;
+            }
+        });
 
         // Setting up a default result for this activity
         intent = new Intent();
@@ -110,64 +252,230 @@ public class SettingsActivity extends Activity {
         });
 
         //accept button events
-        Button btnAccept = (Button) findViewById(R.id.accept);
+        final Button btnAccept = (Button) findViewById(R.id.accept);
         btnAccept.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                //get view objects
-                TextView editText = (TextView) findViewById(R.id.editText);
-                Spinner spinner = (Spinner) findViewById(R.id.rotationAngle);
-                CheckBox centerTextCheckbox = (CheckBox) findViewById(R.id.centerText);
-
                 //get view objects values
-                String bigText = editText.getText().toString();
-                int spinnerPos = spinner.getSelectedItemPosition();
-                boolean centerText = centerTextCheckbox.isChecked();
-                TextView errorMessage = (TextView) findViewById(R.id.errorMessage);
+                final WidgetConfig config = readConfig();
+                final TextView errorMessage = (TextView) findViewById(R.id.errorMessage);
 
-                RemoteViews v = new RemoteViews(getPackageName(), R.layout.bs_widget);
-                AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(getApplicationContext());
+                //reset error message
+                errorMessage.setText("");
 
-                //set waveform and dithering - useless?
-                EinkUtils.setRemoteViewsWaveformAndDithering(v, 0, Drawer.Waveform.WAVEFORM_GC_FULL, Drawer.Dithering.DITHER_DEFAULT);
+                //a preview is not needed anymore
+                cancelPreview();
+                btnAccept.setEnabled(false);
 
-                try {
-                    //reset error message
-                    errorMessage.setText("");
+                //save settings of both widgets in one go before rendering, so updates that come in meanwhile
+                //render the new config instead of overwriting the frame pushed below with the old one
+                Utilities.getWidgetConfigStore().put(new int[]{frWidgetId, bsWidgetId}, config);
 
-                    //get rotation angle and generate text image/bitmap
-                    int rotationAngle = Utilities.getRotationAngleByPosition(spinnerPos);
-                    Bitmap textBitmap = Utilities.createTextBitmap(bigText, Utilities.defaultTextSize, rotationAngle, centerText);
+                //render in the background, the renderer still holds the layout of the last preview
+                renderExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            //generate text image/bitmap
+                            String text = Utilities.getDisplayText(config, System.currentTimeMillis());
+                            Bitmap textBitmap = Utilities.getTextBitmap(config, text);
 
-                    //update view bitmap
-                    v.setImageViewBitmap(R.id.bigText, textBitmap);
+                            //update widgets (overrides pending background renders)
+                            try {
+                                Utilities.getRenderPipeline().push(new int[]{frWidgetId, bsWidgetId}, Utilities.createRenderKey(config, text), textBitmap, config.getDithering());
+                            } finally {
+                                Utilities.releaseTextBitmap(textBitmap);
+                            }
+                        } catch (Exception e) {
+                            //display error message
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    errorMessage.setText(R.string.settings_save_errorMessage);
+                                    btnAccept.setEnabled(true);
+                                }
+                            });
+                            return;
+                        }
 
-                    //update widgets
-                    appWidgetManager.updateAppWidget(frWidgetId, v);
-                    appWidgetManager.updateAppWidget(bsWidgetId, v);
-                } catch (Exception e) {
-                    //display error message
-                    errorMessage.setText(R.string.settings_save_errorMessage);
-                    return;
-                }
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                //start or stop switching texts, and have the next one ready
+                                Utilities.getPlaylistScheduler().update();
+
+                                //live values were just rendered, the next refresh is due when they change
+                                TokenScheduler tokenScheduler = Utilities.getTokenScheduler();
+                                tokenScheduler.markRefreshed(new int[]{frWidgetId, bsWidgetId}, System.currentTimeMillis());
+                                tokenScheduler.update();
+                                Utilities.getRenderPipeline().prerender(new int[]{bsWidgetId}, null);
+
+                                setResult(RESULT_OK, intent);
+                                finish();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop previews and give back the preview bitmap, a running accept render is finished
+     */
+    @Override
+    protected void onDestroy() {
+        cancelPreview();
+        renderExecutor.shutdown();
+        showPreview(null);
+        super.onDestroy();
+    }
 
-// TODO: 22.08.15 Maybe save settings to DB?
+    /**
+     * Get the widget config of the current view objects values
+     *
+     * @return Widget config
+     */
+    private WidgetConfig readConfig() {
+        TextView editText = (TextView) findViewById(R.id.editText);
+        SeekBar rotationAngleBar = (SeekBar) findViewById(R.id.rotationAngle);
+        Spinner alignmentSpinner = (Spinner) findViewById(R.id.alignment);
+        Spinner wrapModeSpinner = (Spinner) findViewById(R.id.wrapMode);
+        CheckBox autoFitCheckbox = (CheckBox) findViewById(R.id.autoFit);
+        Spinner ditheringSpinner = (Spinner) findViewById(R.id.dithering);
+        Spinner playlistIntervalSpinner = (Spinner) findViewById(R.id.playlistInterval);
+        int[] playlistIntervals = getResources().getIntArray(R.array.settings_playlistIntervalMinutes);
+        Spinner refreshIntervalSpinner = (Spinner) findViewById(R.id.refreshInterval);
+        int[] refreshIntervals = getResources().getIntArray(R.array.settings_refreshIntervalMinutes);
 
-                //save text
-                Utilities.putPrefsString(Utilities.prefPrefixText + frWidgetId, bigText);
-                Utilities.putPrefsString(Utilities.prefPrefixText + bsWidgetId, bigText);
+        return new WidgetConfig(
+                editText.getText().toString(),
+                rotationAngleBar.getProgress(),
+                TextAlignment.values()[alignmentSpinner.getSelectedItemPosition()],
+                WrapMode.values()[wrapModeSpinner.getSelectedItemPosition()],
+                autoFitCheckbox.isChecked(),
+                Dithering.values()[ditheringSpinner.getSelectedItemPosition()],
+                playlistIntervals[playlistIntervalSpinner.getSelectedItemPosition()],
+                refreshIntervals[refreshIntervalSpinner.getSelectedItemPosition()]);
+    }
 
-                //save rotation
-                Utilities.putPrefsInt(Utilities.prefPrefixRotation + frWidgetId, spinnerPos);
-                Utilities.putPrefsInt(Utilities.prefPrefixRotation + bsWidgetId, spinnerPos);
+    /**
+     * Get the interval spinner position of an interval
+     *
+     * @param minutesArrayId Resource ID of the integer array with the minutes of the spinner items
+     * @param interval       Minutes
+     *
+     * @return Position (0 for unknown intervals)
+     */
+    private int getIntervalPosition(int minutesArrayId, int interval) {
+        int[] intervals = getResources().getIntArray(minutesArrayId);
+        for (int i = 0; i < intervals.length; i++) {
+            if (intervals[i] == interval) {
+                return i;
+            }
+        }
+        return 0;
+    }
 
-                //save center checkbox
-                Utilities.putPrefsBoolean(Utilities.prefPrefixCenterText + frWidgetId, centerText);
-                Utilities.putPrefsBoolean(Utilities.prefPrefixCenterText + bsWidgetId, centerText);
+    /**
+     * Snap an angle of the tilt slider to the nearest 45° step if it is close to it (not to 360°, the slider ends at 359°)
+     *
+     * @param rotationAngle Rotation angle
+     *
+     * @return Snapped rotation angle
+     */
+    private static int snapRotationAngle(int rotationAngle) {
+        int step = Math.round(rotationAngle / 45f) * 45;
+        return step < 360 && Math.abs(step - rotationAngle) <= ROTATION_SNAP_ANGLE ? step : rotationAngle;
+    }
 
-                setResult(RESULT_OK, intent);
-                finish();
+    /**
+     * Show the rotation angle in its label
+     *
+     * @param rotationAngle Rotation angle
+     */
+    private void showRotationAngle(int rotationAngle) {
+        TextView label = (TextView) findViewById(R.id.rotationAngleLabel);
+        label.setText(getString(R.string.settings_rotationAngle_label, rotationAngle));
+    }
+
+    /**
+     * Render the preview once the user stops typing
+     */
+    private void schedulePreview() {
+        handler.removeCallbacks(previewRunnable);
+        handler.postDelayed(previewRunnable, PREVIEW_DELAY_MS);
+    }
+
+    /**
+     * Drop pending and running previews
+     */
+    private void cancelPreview() {
+        handler.removeCallbacks(previewRunnable);
+        if (previewTask != null) {
+            previewTask.cancel(false);
+            previewTask = null;
+        }
+        previewGeneration++;
+    }
+
+    /**
+     * Render a preview in the background, replaces any older one
+     *
+     * @param config Widget config
+     */
+    private void startPreview(final WidgetConfig config) {
+        cancelPreview();
+        final int generation = previewGeneration;
+
+        previewTask = renderExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                try {
+                    //lay out at full size, so the final render can reuse it, but draw scaled down
+                    TextRenderer textRenderer = Utilities.getTextRenderer();
+                    TextLayout layout = textRenderer.getLayout();
+                    layout.layout(Utilities.getDisplayText(config, System.currentTimeMillis()), Utilities.getTextSize(config.isAutoFit()), config.getRotationAngle(), config.getAlignment(), config.getWrapMode());
+                    bitmap = textRenderer.render(layout, Utilities.getOutputMode(config.getDithering()), config.getDithering(), PREVIEW_SCALE);
+                } catch (Exception e) {
+                    //nothing to show, e.g. empty text
+                }
+
+                final Bitmap previewBitmap = bitmap;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == previewGeneration && !isFinishing()) {
+                            showPreview(previewBitmap);
+                        } else if (previewBitmap != null) {
+                            Utilities.getBitmapPool().release(previewBitmap);
+                        }
+                    }
+                });
             }
         });
     }
+
+    /**
+     * Show a preview bitmap and give back the old one
+     *
+     * @param bitmap Preview bitmap (or null to clear it)
+     */
+    private void showPreview(Bitmap bitmap) {
+        ImageView preview = (ImageView) findViewById(R.id.preview);
+        preview.setImageBitmap(bitmap);
+
+        //alpha only bitmaps are drawn in the paint color (black), tint them white like the widget
+        if (bitmap != null && bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+            preview.setColorFilter(Color.WHITE);
+        } else {
+            preview.clearColorFilter();
+        }
+
+        if (previewBitmap != null) {
+            Utilities.getBitmapPool().release(previewBitmap);
+        }
+        previewBitmap = bitmap;
+    }
 }
@@ -0,0 +1,311 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders texts into bitmaps with android.graphics.
+ * Keeps paint, canvas and all scratch objects between renders, so rendering does not allocate once warmed up.
+ * At right angles lines are drawn from a shared {@link LineStripCache}, so only lines not rendered before are rasterized.
+ * Any other angle (and scaled previews) fills the glyph outlines of the lines under the rotation, the outlines are
+ * shared per line in the same cache, so tilting a text only fills them again and a changed line only converts itself,
+ * whichever renderer thread drew the previous frame.
+ * Not thread safe, use one renderer per thread.
+ */
+public class TextRenderer implements TextRasterizer<Bitmap> {
+    /** Created once per process, Typeface.create() is not cheap */
+    private static final Typeface TYPEFACE = Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
+
+    private final BitmapPool bitmapPool;
+    private final RenderMetrics renderMetrics;
+    private final LineStripCache lineStripCache;
+
+    private final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final Canvas canvas = new Canvas();
+    private final Canvas stripCanvas = new Canvas();
+    private final Paint stripPaint = new Paint();
+    private final LineStripCache.Key stripProbeKey = new LineStripCache.Key();
+    private final LineStripCache.Key outlineProbeKey = new LineStripCache.Key();
+    private final Matrix matrix = new Matrix();
+    private final Rect bounds = new Rect();
+    private final Paint.FontMetrics fontMetrics = new Paint.FontMetrics();
+    private final TextLayout layout;
+    private final Ditherer ditherer = new Ditherer();
+
+    /** Scratch buffer for quantization, grown on demand */
+    private ByteBuffer pixelBuffer = ByteBuffer.allocate(0);
+
+    /**
+     * Create a text renderer
+     *
+     * @param bitmapPool     Pool for target bitmaps
+     * @param renderMetrics  Metrics to record stage timings in
+     * @param lineStripCache Shared cache of rendered lines and their outlines
+     * @param screenWidth    Screen width texts are fitted to
+     * @param screenHeight   Screen height texts are fitted to
+     */
+    public TextRenderer(BitmapPool bitmapPool, RenderMetrics renderMetrics, LineStripCache lineStripCache, int screenWidth, int screenHeight) {
+        this.bitmapPool = bitmapPool;
+        this.renderMetrics = renderMetrics;
+        this.lineStripCache = lineStripCache;
+
+        textPaint.setTypeface(TYPEFACE);
+        textPaint.setARGB(255, 255, 255, 255);
+
+        //alpha strips are drawn in the paint color, unfiltered so right angle rotations copy pixels exactly
+        stripPaint.setARGB(255, 255, 255, 255);
+        stripPaint.setFilterBitmap(false);
+
+        layout = new TextLayout(new TextMeasurer() {
+            @Override
+            public void setTextSize(float textSize) {
+                textPaint.setTextSize(textSize);
+            }
+
+            @Override
+            public float measureText(String text, int start, int end) {
+                return textPaint.measureText(text, start, end);
+            }
+
+            @Override
+            public int measureInkWidth(String text, int start, int end) {
+                textPaint.getTextBounds(text, start, end, bounds);
+                return bounds.width();
+            }
+
+            @Override
+            public float getAscent() {
+                textPaint.getFontMetrics(fontMetrics);
+                return -fontMetrics.ascent;
+            }
+
+            @Override
+            public float getDescent() {
+                textPaint.getFontMetrics(fontMetrics);
+                return fontMetrics.descent;
+            }
+
+            @Override
+            public float getLeading() {
+                textPaint.getFontMetrics(fontMetrics);
+                return fontMetrics.leading;
+            }
+        }, screenWidth, screenHeight);
+    }
+
+    /**
+     * Get the bitmap config of an output mode
+     *
+     * @param outputMode Output mode
+     *
+     * @return Bitmap config
+     */
+    public static Bitmap.Config getConfig(OutputMode outputMode) {
+        return outputMode.isAlphaOnly() ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public TextLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Render a text into a bitmap from the pool (give it back to the pool once it is not needed anymore)
+     */
+    @Override
+    public Bitmap render(final String text, final float textSize, final int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering) {
+        long startTime = System.nanoTime();
+        layout.layout(text, textSize, rotationAngle, alignment, wrapMode);
+        renderMetrics.recordTime(RenderMetrics.Stage.LAYOUT, startTime);
+
+        return render(layout, outputMode, dithering);
+    }
+
+    /**
+     * Render a laid out text into a bitmap from the pool (give it back to the pool once it is not needed anymore)
+     */
+    @Override
+    public Bitmap render(TextLayout layout, OutputMode outputMode, Dithering dithering) {
+        return render(layout, outputMode, dithering, 1);
+    }
+
+    /**
+     * Render a laid out text scaled down, e.g. for previews (give the bitmap back to the pool once it is not needed anymore)
+     *
+     * @param layout     Text layout (at full size)
+     * @param outputMode Output pixel format
+     * @param dithering  Dithering for quantized output modes
+     * @param scale      Scale of the bitmap relative to the full size (0-1)
+     *
+     * @return Bitmap
+     */
+    public Bitmap render(TextLayout layout, OutputMode outputMode, Dithering dithering, float scale) {
+        long startTime = System.nanoTime();
+        String text = layout.getText();
+        textPaint.setTextSize(layout.getTextSize());
+
+        int width = Math.round(layout.getRotatedWidth() * scale);
+        int height = Math.round(layout.getRotatedHeight() * scale);
+        Bitmap bitmap = bitmapPool.acquire(width, height, getConfig(outputMode));
+
+        //rotate the canvas, so text is drawn rotated in a single pass
+        matrix.setRotate(layout.getRotationAngle());
+        canvas.setBitmap(bitmap);
+        int saveCount = canvas.save();
+        canvas.scale(scale, scale);
+        canvas.translate(-layout.getRotatedLeft(), -layout.getRotatedTop());
+        canvas.concat(matrix);
+
+        //strips are only pixel exact unscaled and at right angles, anything else fills outlines to avoid resampling blur
+        if (scale == 1 && layout.getRotationAngle() % 90 == 0) {
+            for (int i = 0; i < layout.getLineCount(); i++) {
+                drawStrip(text, layout.getLineStart(i), layout.getLineEnd(i), layout.getLineX(i), layout.getBaseline(i), layout.getTextSize());
+            }
+        } else {
+            for (int i = 0; i < layout.getLineCount(); i++) {
+                drawOutline(text, layout.getLineStart(i), layout.getLineEnd(i), layout.getLineX(i), layout.getBaseline(i), layout.getTextSize());
+            }
+        }
+
+        canvas.restoreToCount(saveCount);
+        canvas.setBitmap(null);
+        renderMetrics.recordTime(RenderMetrics.Stage.DRAW, startTime);
+
+        //reduce grey levels if needed
+        if (outputMode.isQuantized()) {
+            startTime = System.nanoTime();
+            quantize(bitmap, outputMode, dithering);
+            renderMetrics.recordTime(RenderMetrics.Stage.QUANTIZE, startTime);
+        }
+
+        renderMetrics.recordSize(RenderMetrics.Size.BITMAP, bitmap.getByteCount());
+
+        return bitmap;
+    }
+
+    /**
+     * Draw a line from its cached strip, renders the strip first if needed
+     *
+     * @param text     Text
+     * @param start    Line start
+     * @param end      Line end (exclusive)
+     * @param x        X of the line origin in the unrotated text block
+     * @param baseline Baseline in the unrotated text block
+     * @param textSize Text size (already set on the paint)
+     */
+    private void drawStrip(String text, int start, int end, int x, int baseline, float textSize) {
+        LineStripCache.Strip strip = lineStripCache.get(stripProbeKey.set(text, start, end, textSize));
+        if (strip != null) {
+            renderMetrics.count(RenderMetrics.Event.STRIP_HIT);
+        } else {
+            renderMetrics.count(RenderMetrics.Event.STRIP_MISS);
+            strip = renderStrip(text, start, end);
+            lineStripCache.put(stripProbeKey.copy(), strip);
+        }
+
+        if (strip.getBitmap() != null) {
+            canvas.drawBitmap(strip.getBitmap(), x + strip.getLeft(), baseline + strip.getTop(), stripPaint);
+        }
+    }
+
+    /**
+     * Render a line into a strip just big enough for its ink
+     *
+     * @param text  Text
+     * @param start Line start
+     * @param end   Line end (exclusive)
+     *
+     * @return Strip
+     */
+    private LineStripCache.Strip renderStrip(String text, int start, int end) {
+        textPaint.getTextBounds(text, start, end, bounds);
+        if (bounds.isEmpty()) {
+            return new LineStripCache.Strip(null, 0, 0);
+        }
+
+        //one pixel margin for anti aliasing at the rounded ink bounds
+        int left = bounds.left - 1;
+        int top = bounds.top - 1;
+        Bitmap bitmap = Bitmap.createBitmap(bounds.width() + 2, bounds.height() + 2, Bitmap.Config.ALPHA_8);
+        stripCanvas.setBitmap(bitmap);
+        stripCanvas.drawText(text, start, end, -left, -top, textPaint);
+        stripCanvas.setBitmap(null);
+
+        return new LineStripCache.Strip(bitmap, left, top);
+    }
+
+    /**
+     * Fill the glyph outlines of a line, converts them only on first use
+     *
+     * @param text     Text
+     * @param start    Line start
+     * @param end      Line end (exclusive)
+     * @param x        X of the line origin in the unrotated text block
+     * @param baseline Baseline in the unrotated text block
+     * @param textSize Text size (already set on the paint)
+     */
+    private void drawOutline(String text, int start, int end, int x, int baseline, float textSize) {
+        Path outline = lineStripCache.getOutline(outlineProbeKey.set(text, start, end, textSize));
+        if (outline == null) {
+            outline = new Path();
+            textPaint.getTextPath(text, start, end, 0, 0, outline);
+            lineStripCache.putOutline(outlineProbeKey.copy(), outline);
+        }
+
+        int saveCount = canvas.save();
+        canvas.translate(x, baseline);
+        canvas.drawPath(outline, textPaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Quantize an alpha bitmap in place
+     *
+     * @param bitmap     Mutable ALPHA_8 bitmap
+     * @param outputMode Output mode
+     * @param dithering  Dithering
+     */
+    private void quantize(Bitmap bitmap, OutputMode outputMode, Dithering dithering) {
+        if (pixelBuffer.capacity() < bitmap.getByteCount()) {
+            pixelBuffer = ByteBuffer.allocate(bitmap.getByteCount());
+        }
+
+        pixelBuffer.clear();
+        bitmap.copyPixelsToBuffer(pixelBuffer);
+        ditherer.dither(pixelBuffer.array(), 0, bitmap.getWidth(), bitmap.getHeight(), bitmap.getRowBytes(), outputMode, dithering);
+        pixelBuffer.flip();
+        bitmap.copyPixelsFromBuffer(pixelBuffer);
+    }
+}
@@ -0,0 +1,186 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.util.SparseLongArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Schedules the refreshes of widgets with live values (see {@link ContentTokens}).
+ * A widget is due once one of its values changed, but not before its refresh interval passed since its last
+ * refresh, so the e-ink panel is not refreshed more often than configured.
+ * All due widgets share one alarm: it waits for widgets that become due shortly after the first one,
+ * so they are rendered together and widgets showing the same frame get a single update.
+ */
+public class TokenScheduler {
+    private static final String TAG = TokenScheduler.class.getSimpleName();
+
+    /** Broadcast to {@link BSWidget} when live values are due */
+    public static final String ACTION_REFRESH = "de.markus_unterkofler.yotatextcover.action.REFRESH_TOKENS";
+
+    /** Widgets due within this time after the first due one are refreshed together */
+    private static final long COALESCE_WINDOW_MILLIS = 30 * 1000;
+
+    /** The system may batch the alarm with other wake ups within this window */
+    private static final long ALARM_WINDOW_MILLIS = 5 * 1000;
+
+    private final Context context;
+    private final WidgetConfigStore widgetConfigStore;
+
+    /** Time of the last refresh by widget ID, unknown widgets (e.g. after a process restart) are due (guarded by this) */
+    private final SparseLongArray lastRefreshes = new SparseLongArray();
+
+    /**
+     * Create a token scheduler
+     *
+     * @param context           App context
+     * @param widgetConfigStore Widget configs
+     */
+    public TokenScheduler(Context context, WidgetConfigStore widgetConfigStore) {
+        this.context = context;
+        this.widgetConfigStore = widgetConfigStore;
+    }
+
+    /**
+     * Get all widgets with live values that are due
+     *
+     * @param timeMillis Time
+     *
+     * @return Widget IDs
+     */
+    public synchronized int[] getDueWidgetIds(long timeMillis) {
+        List<Integer> dueWidgetIds = new ArrayList<>();
+        for (int widgetId : widgetConfigStore.getWidgetIds()) {
+            if (getDueTime(widgetId) <= timeMillis) {
+                dueWidgetIds.add(widgetId);
+            }
+        }
+
+        int[] widgetIds = new int[dueWidgetIds.size()];
+        for (int i = 0; i < widgetIds.length; i++) {
+            widgetIds[i] = dueWidgetIds.get(i);
+        }
+        return widgetIds;
+    }
+
+    /**
+     * Remember that widgets were rendered with the values of a time
+     *
+     * @param widgetIds  Widget IDs
+     * @param timeMillis Time
+     */
+    public synchronized void markRefreshed(int[] widgetIds, long timeMillis) {
+        for (int widgetId : widgetIds) {
+            lastRefreshes.put(widgetId, timeMillis);
+        }
+    }
+
+    /**
+     * (Re)schedule the alarm after refreshes or widget config changes.
+     * Alarms are gone after a reboot, widgets get an update then and call this again.
+     */
+    public synchronized void update() {
+        //earliest due widget, then the latest one that can join its refresh
+        long firstDueTime = Long.MAX_VALUE;
+        int[] widgetIds = widgetConfigStore.getWidgetIds();
+        long[] dueTimes = new long[widgetIds.length];
+        for (int i = 0; i < widgetIds.length; i++) {
+            dueTimes[i] = getDueTime(widgetIds[i]);
+            firstDueTime = Math.min(firstDueTime, dueTimes[i]);
+        }
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = createPendingIntent();
+
+        if (firstDueTime == Long.MAX_VALUE) {
+            alarmManager.cancel(pendingIntent);
+            Log.d(TAG, "No live values, alarm cancelled.");
+            return;
+        }
+
+        long alarmTime = firstDueTime;
+        for (long dueTime : dueTimes) {
+            if (dueTime <= firstDueTime + COALESCE_WINDOW_MILLIS) {
+                alarmTime = Math.max(alarmTime, dueTime);
+            }
+        }
+
+        //a window alarm never fires early, so every widget of the batch is due when it does
+        alarmManager.setWindow(AlarmManager.RTC_WAKEUP, alarmTime, ALARM_WINDOW_MILLIS, pendingIntent);
+        Log.d(TAG, "Live value alarm in " + (alarmTime - System.currentTimeMillis()) + "ms.");
+    }
+
+    /**
+     * Forget deleted widgets
+     *
+     * @param widgetIds Widget IDs
+     */
+    public synchronized void forget(int[] widgetIds) {
+        for (int widgetId : widgetIds) {
+            lastRefreshes.delete(widgetId);
+        }
+    }
+
+    /**
+     * Get the time a widget is due: its values changed since the last refresh and its refresh interval passed
+     * (caller holds the lock)
+     *
+     * @param widgetId Widget ID
+     *
+     * @return Time, Long.MAX_VALUE for widgets without live values
+     */
+    private long getDueTime(int widgetId) {
+        WidgetConfig config = widgetConfigStore.get(widgetId);
+        if (!config.hasTokens()) {
+            return Long.MAX_VALUE;
+        }
+
+        long lastRefresh = lastRefreshes.get(widgetId, -1);
+        if (lastRefresh < 0) {
+            return 0;
+        }
+
+        long nextChange = ContentTokens.getNextChange(config.getText(), lastRefresh);
+        return Math.max(nextChange, lastRefresh + config.getRefreshIntervalMillis());
+    }
+
+    /**
+     * Create the alarm's intent, equal for every call so the alarm is replaced and not added
+     *
+     * @return Pending intent
+     */
+    private PendingIntent createPendingIntent() {
+        Intent intent = new Intent(context, BSWidget.class);
+        intent.setAction(ACTION_REFRESH);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -26,26 +26,34 @@ package de.markus_unterkofler.yotatextcover;
 
 import android.app.Application;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.Typeface;
-import android.text.TextPaint;
 
 /**
  * Collection of useful stuff
  */
 public class Utilities extends Application {
     public static int defaultTextSize = 200;
-    public static String prefPrefixText = "bigText_";
-    public static String prefPrefixRotation = "rotation_";
-    public static String prefPrefixCenterText = "centerText_";
+    public static OutputMode defaultOutputMode = OutputMode.ALPHA;
+    public static OutputMode panelOutputMode = OutputMode.GREY_16;
 
     private static Context context;
-    private static String sharedPrefsTag = "yotatextcover"; //@FIXME: change to package name (workaround for current users needed)
+    private static RenderMetrics renderMetrics;
+    private static BitmapPool bitmapPool;
+    private static int backScreenWidth;
+    private static int backScreenHeight;
+    private static RenderCache renderCache;
+    private static LineStripCache lineStripCache;
+    private static final ThreadLocal<TextRenderer> textRenderer = new ThreadLocal<TextRenderer>() {
+        @Override
+        protected TextRenderer initialValue() {
+            return new TextRenderer(bitmapPool, renderMetrics, lineStripCache, backScreenWidth, backScreenHeight);
+        }
+    };
+    private static RenderPipeline renderPipeline;
+    private static WidgetConfigStore widgetConfigStore;
+    private static PlaylistScheduler playlistScheduler;
+    private static ContentTokens contentTokens;
+    private static TokenScheduler tokenScheduler;
 
     /**
      * Get app context
@@ -57,204 +65,207 @@ public class Utilities extends Application {
     }
 
     /**
-     * Get SharedPreferences object
+     * Get render metrics
      *
-     * @return SharedPreferences
+     * @return Render metrics
      */
-    private static SharedPreferences getPrefs() {
-        return getAppContext().getSharedPreferences(sharedPrefsTag, Context.MODE_PRIVATE);
+    public static RenderMetrics getRenderMetrics() {
+        return Utilities.renderMetrics;
     }
 
     /**
-     * Get editor for SharedPreferences
+     * Get bitmap pool
      *
-     * @return SharedPreferences editor
+     * @return Bitmap pool
      */
-    private static SharedPreferences.Editor getPrefsEditor() {
-        SharedPreferences sharedPrefs = getPrefs();
-        return sharedPrefs.edit();
+    public static BitmapPool getBitmapPool() {
+        return Utilities.bitmapPool;
     }
 
     /**
-     * Get an integer preference
-     *
-     * @param prefName     Preference name
-     * @param defaultValue Default value
+     * Get render cache
      *
-     * @return Preference value
+     * @return Render cache
      */
-    public static int getPrefsInt(String prefName, int defaultValue) {
-        SharedPreferences sharedPrefs = getPrefs();
-        return sharedPrefs.getInt(prefName, defaultValue);
+    public static RenderCache getRenderCache() {
+        return Utilities.renderCache;
     }
 
     /**
-     * Get a string preference
-     *
-     * @param prefName     Preference name
-     * @param defaultValue Default value
+     * Get widget config store
      *
-     * @return Preference value
+     * @return Widget config store
      */
-    public static String getPrefsString(String prefName, String defaultValue) {
-        SharedPreferences sharedPrefs = getPrefs();
-        return sharedPrefs.getString(prefName, defaultValue);
+    public static WidgetConfigStore getWidgetConfigStore() {
+        return Utilities.widgetConfigStore;
     }
 
     /**
-     * Get a boolean preference
+     * Get playlist scheduler
      *
-     * @param prefName     Preference name
-     * @param defaultValue Default value
+     * @return Playlist scheduler
+     */
+    public static PlaylistScheduler getPlaylistScheduler() {
+        return Utilities.playlistScheduler;
+    }
+
+    /**
+     * Get token refresh scheduler
      *
-     * @return Preference value
+     * @return Token scheduler
      */
-    public static boolean getPrefsBoolean(String prefName, boolean defaultValue) {
-        SharedPreferences sharedPrefs = getPrefs();
-        return sharedPrefs.getBoolean(prefName, defaultValue);
+    public static TokenScheduler getTokenScheduler() {
+        return Utilities.tokenScheduler;
     }
 
     /**
-     * Save an integer preference
+     * Get render pipeline
      *
-     * @param prefName  Preference name
-     * @param prefValue Preference value
+     * @return Render pipeline
      */
-    public static void putPrefsInt(String prefName, int prefValue) {
-        SharedPreferences.Editor editor = getPrefsEditor();
-        editor.putInt(prefName, prefValue);
-        editor.commit();
+    public static RenderPipeline getRenderPipeline() {
+        return Utilities.renderPipeline;
     }
 
     /**
-     * Save a string preference
+     * Get the rotation angle by spinner position (45° steps of older versions, for migration)
+     *
+     * @param position Position
      *
-     * @param prefName  Preference name
-     * @param prefValue Preference value
+     * @return Rotation angle
      */
-    public static void putPrefsString(String prefName, String prefValue) {
-        SharedPreferences.Editor editor = getPrefsEditor();
-        editor.putString(prefName, prefValue);
-        editor.commit();
+    public static int getRotationAngleByPosition(int position) {
+        return position * 45;
     }
 
     /**
-     * Save a boolean preference
+     * Get the text renderer of the current thread
      *
-     * @param prefName  Preference name
-     * @param prefValue Preference value
+     * @return Text renderer
      */
-    public static void putPrefsBoolean(String prefName, boolean prefValue) {
-        SharedPreferences.Editor editor = getPrefsEditor();
-        editor.putBoolean(prefName, prefValue);
-        editor.commit();
+    public static TextRenderer getTextRenderer() {
+        return Utilities.textRenderer.get();
     }
 
     /**
-     * Remove a preference
+     * Get the text size to render with
+     *
+     * @param autoFit Fit text to the back screen?
      *
-     * @param prefName Preference name
+     * @return Text size or {@link TextLayout#AUTO_FIT_TEXT_SIZE}
      */
-    public static void removePref(String prefName) {
-        SharedPreferences.Editor editor = getPrefsEditor();
-        editor.remove(prefName);
-        editor.commit();
+    public static int getTextSize(boolean autoFit) {
+        return autoFit ? TextLayout.AUTO_FIT_TEXT_SIZE : defaultTextSize;
     }
 
     /**
-     * Get the rotation angle by spinner position
+     * Get the output mode to render with
      *
-     * @param position Position
+     * @param dithering Dithering
      *
-     * @return Rotation angle
+     * @return Full alpha if the panel dithers, the panel's grey levels if the app dithers
      */
-    public static int getRotationAngleByPosition(int position) {
-        return position * 45;
+    public static OutputMode getOutputMode(Dithering dithering) {
+        return dithering == Dithering.NONE ? defaultOutputMode : panelOutputMode;
     }
 
     /**
-     * Create an image/bitmap from a text
+     * Get an image/bitmap for a text, from render cache if possible
      *
      * @param text Text
-     * @param textSizePixels Text size
+     * @param textSizePixels Text size (or {@link TextLayout#AUTO_FIT_TEXT_SIZE})
      * @param rotationAngle Rotation angle
-     * @param centerText Center text?
+     * @param alignment Alignment of the lines
+     * @param wrapMode Word wrapping to the screen
+     * @param outputMode Output pixel format
+     * @param dithering Dithering for quantized output modes
      *
-     * @return Bitmap
+     * @return Bitmap (shared with the cache, do not modify and hand it back with {@link #releaseTextBitmap(Bitmap)})
      */
-    public static Bitmap createTextBitmap(final String text, final float textSizePixels, final int rotationAngle, boolean centerText) {
-        //set up TextPaint
-        TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-        textPaint.setTypeface(Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD));
-        textPaint.setTextSize(textSizePixels);
-        textPaint.setARGB(255, 255, 255, 255);
-
-        //optional stuff (could be useful)
-        //textPaint.setAntiAlias(true);
-        //textPaint.setFilterBitmap(true);
-        //textPaint.setTextAlign(Paint.Align.LEFT);
-        //textPaint.setColor(textColour);
-        //textPaint.setFakeBoldText(true);
-        //textPaint.setDither(true);
-        //textPaint.setLinearText(true);
-        //textPaint.setSubpixelText(true);
-        //textPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SCREEN));
+    public static Bitmap getTextBitmap(final String text, final float textSizePixels, final int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering) {
+        return getTextBitmap(text, textSizePixels, rotationAngle, alignment, wrapMode, outputMode, dithering, true);
+    }
 
-        //split text in lines
-        String[] textLines = text.split("\n");
-        int lineSpace = 20;
+    /**
+     * Get an image/bitmap for a text, from render cache if possible
+     *
+     * @param persist Keep a new bitmap in the disk cache as well?
+     *
+     * @see #getTextBitmap(String, float, int, TextAlignment, WrapMode, OutputMode, Dithering)
+     */
+    private static Bitmap getTextBitmap(final String text, final float textSizePixels, final int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering, boolean persist) {
+        String key = RenderCache.createKey(text, textSizePixels, rotationAngle, alignment, wrapMode, outputMode, dithering);
 
-        //get width of longest text line
-        float textWidth = 0;
-        for (String textLine : textLines) {
-            if (textPaint.measureText(textLine) > textWidth) {
-                textWidth = textPaint.measureText(textLine);
-            }
+        Bitmap textBitmap = renderCache.acquire(key);
+        if (textBitmap == null) {
+            textBitmap = createTextBitmap(text, textSizePixels, rotationAngle, alignment, wrapMode, outputMode, dithering);
+            renderCache.put(key, textBitmap, persist);
         }
 
-        //calculate bitmap height
-        float bitmapHeight = (textSizePixels * textLines.length) + (lineSpace * (textLines.length - 1)) + lineSpace; //add another lineSpace because uhm.. to be centered
-
-        //create empty bitmap
-        Bitmap myBitmap = Bitmap.createBitmap((int) textWidth, (int) bitmapHeight, Bitmap.Config.ARGB_8888);
-
-        //copy bitmap into canvas
-        Canvas myCanvas = new Canvas(myBitmap);
-
-        //debugging stuff (colored background)
-        //myCanvas.drawColor(android.graphics.Color.GREEN);
-        //myCanvas.drawBitmap(myBitmap, 0, 0, null);
-
-        //Rect for getting dimensions
-        Rect bounds = new Rect();
-
-        int x = 0;
-        int y = 170; //no idea where to get this value from (it's not the text size, not the bitmap height etc.) - but it works
-
-        //try to calculate y value (does not work yet)
-        //int y = Math.round((textSizePixels + lineSpace) * textLines.length * 0.80f);
-        //int y = (int) bitmapHeight * 0.25;
+        return textBitmap;
+    }
 
-        //iterate over text lines
-        for (String line : textLines) {
-            //user wants centered text?
-            if (centerText) {
-                textPaint.getTextBounds(line, 0, line.length(), bounds);
-                x = (myCanvas.getWidth() / 2) - (bounds.width() / 2);
-            }
+    /**
+     * Get the text a widget config shows at a time: the playlist text of the time with its live values
+     *
+     * @param config     Widget config
+     * @param timeMillis Time (System.currentTimeMillis())
+     *
+     * @return Text
+     */
+    public static String getDisplayText(WidgetConfig config, long timeMillis) {
+        return contentTokens.expand(config.getTextAt(timeMillis), timeMillis);
+    }
 
-            //draw text to canvas and calculate next y value
-            myCanvas.drawText(line, x, y, textPaint);
-            y += textSizePixels + lineSpace;
-        }
+    /**
+     * Get the render key of a widget config, equal keys render equal bitmaps
+     *
+     * @param config Widget config
+     * @param text   Text of the config to show (see {@link #getDisplayText(WidgetConfig, long)})
+     *
+     * @return Render key
+     */
+    public static String createRenderKey(WidgetConfig config, String text) {
+        return RenderCache.createKey(text, getTextSize(config.isAutoFit()), config.getRotationAngle(), config.getAlignment(), config.getWrapMode(), getOutputMode(config.getDithering()), config.getDithering());
+    }
 
-        //matrix is needed for rotation
-        Matrix matrix = new Matrix();
-        matrix.postRotate(rotationAngle);
+    /**
+     * Get an image/bitmap for a widget config, from render cache if possible
+     *
+     * @param config Widget config
+     * @param text   Text of the config to show (see {@link #getDisplayText(WidgetConfig, long)})
+     *
+     * @return Bitmap (shared with the cache, do not modify and hand it back with {@link #releaseTextBitmap(Bitmap)})
+     */
+    public static Bitmap getTextBitmap(WidgetConfig config, String text) {
+        //frames with live values are outdated soon, don't wear out the flash with them
+        return getTextBitmap(text, getTextSize(config.isAutoFit()), config.getRotationAngle(), config.getAlignment(), config.getWrapMode(), getOutputMode(config.getDithering()), config.getDithering(), !config.hasTokens());
+    }
 
-        myBitmap = Bitmap.createBitmap(myBitmap, 0, 0, myCanvas.getWidth(), myCanvas.getHeight(), matrix, true);
+    /**
+     * Hand back a bitmap from {@link #getTextBitmap(String, float, int, TextAlignment, WrapMode, OutputMode, Dithering)}
+     *
+     * @param textBitmap Bitmap
+     */
+    public static void releaseTextBitmap(Bitmap textBitmap) {
+        renderCache.release(textBitmap);
+    }
 
-        return myBitmap;
+    /**
+     * Create an image/bitmap from a text
+     *
+     * @param text Text
+     * @param textSizePixels Text size (or {@link TextLayout#AUTO_FIT_TEXT_SIZE})
+     * @param rotationAngle Rotation angle
+     * @param alignment Alignment of the lines
+     * @param wrapMode Word wrapping to the screen
+     * @param outputMode Output pixel format
+     * @param dithering Dithering for quantized output modes
+     *
+     * @return Bitmap
+     */
+    public static Bitmap createTextBitmap(final String text, final float textSizePixels, final int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering) {
+        return getTextRenderer().render(text, textSizePixels, rotationAngle, alignment, wrapMode, outputMode, dithering);
     }
 
     /**
@@ -263,5 +274,27 @@ public class Utilities extends Application {
     public void onCreate() {
         super.onCreate();
         Utilities.context = getApplicationContext();
+
+        //texts are fitted to the full screen back screen widget
+        Utilities.backScreenWidth = getResources().getDimensionPixelSize(R.dimen.back_screen_width);
+        Utilities.backScreenHeight = getResources().getDimensionPixelSize(R.dimen.back_screen_height);
+
+        Utilities.renderMetrics = new RenderMetrics();
+
+        //load all widget settings once
+        Utilities.widgetConfigStore = new WidgetConfigStore(Utilities.context);
+        Utilities.playlistScheduler = new PlaylistScheduler(Utilities.context, Utilities.widgetConfigStore);
+        Utilities.contentTokens = new ContentTokens(Utilities.context);
+        Utilities.tokenScheduler = new TokenScheduler(Utilities.context, Utilities.widgetConfigStore);
+
+        //keep rendered bitmaps in memory, up to 1/8 of the available heap, and reuse evicted ones
+        int memoryBudget = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        Utilities.bitmapPool = new BitmapPool(memoryBudget / 2);
+        Utilities.renderCache = new RenderCache(Utilities.context, memoryBudget, Utilities.bitmapPool, Utilities.renderMetrics);
+        Utilities.lineStripCache = new LineStripCache(memoryBudget / 4);
+
+        //frames are handed to the widget host as files, pass null to send them inline instead
+        FrameStore frameStore = new FrameStore(Utilities.context, Utilities.renderMetrics);
+        Utilities.renderPipeline = new RenderPipeline(Utilities.context, Utilities.renderMetrics, frameStore);
     }
 }
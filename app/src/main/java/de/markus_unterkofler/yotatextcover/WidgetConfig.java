@@ -0,0 +1,409 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of one widget (immutable)
+ */
+public class WidgetConfig {
+    private static final String JSON_TEXT = "text";
+    private static final String JSON_ROTATION_ANGLE = "rotationAngle";
+    /** Rotation spinner position (45° steps), replaced by the angle, still read from older configs */
+    private static final String JSON_LEGACY_ROTATION = "rotation";
+    private static final String JSON_ALIGNMENT = "alignment";
+    private static final String JSON_WRAP_MODE = "wrapMode";
+    /** Replaced by alignment, still read from older configs */
+    private static final String JSON_LEGACY_CENTER_TEXT = "centerText";
+    private static final String JSON_AUTO_FIT = "autoFit";
+    private static final String JSON_DITHERING = "dithering";
+    private static final String JSON_PLAYLIST_INTERVAL = "playlistInterval";
+    private static final String JSON_REFRESH_INTERVAL = "refreshInterval";
+
+    /** A line with only this separates the texts of a playlist */
+    public static final String PLAYLIST_SEPARATOR = "---";
+
+    /** Alarms firing up to this early still count for the slot they were scheduled for */
+    private static final long SLOT_TOLERANCE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final String text;
+    private final int rotationAngle;
+    private final TextAlignment alignment;
+    private final WrapMode wrapMode;
+    private final boolean autoFit;
+    private final Dithering dithering;
+    private final int playlistInterval;
+    private final int refreshInterval;
+
+    /** Playlist texts, split once */
+    private final String[] texts;
+
+    /**
+     * Create a widget config
+     *
+     * @param text             Text
+     * @param rotationAngle    Rotation angle in degrees (any angle, normalized to 0-359)
+     * @param alignment        Alignment of the lines
+     * @param wrapMode         Word wrapping to the screen
+     * @param autoFit          Fit text to screen?
+     * @param dithering        Dithering
+     * @param playlistInterval Minutes between playlist texts (0 shows the first text only)
+     * @param refreshInterval  Min. minutes between refreshes of live values (see {@link ContentTokens})
+     */
+    public WidgetConfig(String text, int rotationAngle, TextAlignment alignment, WrapMode wrapMode, boolean autoFit, Dithering dithering, int playlistInterval, int refreshInterval) {
+        this.text = text;
+        this.rotationAngle = ((rotationAngle % 360) + 360) % 360;
+        this.alignment = alignment;
+        this.wrapMode = wrapMode;
+        this.autoFit = autoFit;
+        this.dithering = dithering;
+        this.playlistInterval = playlistInterval;
+        this.refreshInterval = refreshInterval;
+        this.texts = splitPlaylist(text);
+    }
+
+    /**
+     * Get text
+     *
+     * @return Text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Get the playlist texts
+     *
+     * @return Texts (at least one)
+     */
+    public String[] getTexts() {
+        return texts.clone();
+    }
+
+    /**
+     * Get the minutes between playlist texts
+     *
+     * @return Minutes (0 if the text never changes)
+     */
+    public int getPlaylistInterval() {
+        return playlistInterval;
+    }
+
+    /**
+     * Get the milliseconds between playlist texts
+     *
+     * @return Milliseconds (0 if the text never changes)
+     */
+    public long getPlaylistIntervalMillis() {
+        return TimeUnit.MINUTES.toMillis(playlistInterval);
+    }
+
+    /**
+     * Get the min. minutes between refreshes of live values
+     *
+     * @return Minutes
+     */
+    public int getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Get the min. milliseconds between refreshes of live values
+     *
+     * @return Milliseconds
+     */
+    public long getRefreshIntervalMillis() {
+        return TimeUnit.MINUTES.toMillis(refreshInterval);
+    }
+
+    /**
+     * Has live values (in any playlist text)?
+     *
+     * @return Has live values?
+     */
+    public boolean hasTokens() {
+        return ContentTokens.hasTokens(text);
+    }
+
+    /**
+     * Has a playlist that changes the text on its own?
+     *
+     * @return Has a playlist?
+     */
+    public boolean hasPlaylist() {
+        return texts.length > 1 && playlistInterval > 0;
+    }
+
+    /**
+     * Get the text to show at a time.
+     * The position in the playlist follows the wall clock, so widgets with the same interval switch together and
+     * nothing has to be remembered between alarms.
+     *
+     * @param timeMillis Time (System.currentTimeMillis())
+     *
+     * @return Text
+     */
+    public String getTextAt(long timeMillis) {
+        if (!hasPlaylist()) {
+            return texts[0];
+        }
+
+        return texts[(int) (getSlot(timeMillis) % texts.length)];
+    }
+
+    /**
+     * Get the text the playlist switches to at the end of the slot of a time
+     *
+     * @param timeMillis Time (System.currentTimeMillis())
+     *
+     * @return Text
+     */
+    public String getNextTextAt(long timeMillis) {
+        if (!hasPlaylist()) {
+            return texts[0];
+        }
+
+        return texts[(int) ((getSlot(timeMillis) + 1) % texts.length)];
+    }
+
+    /**
+     * Get the playlist slot of a time, a text only changes at the end of its slot
+     *
+     * @param timeMillis Time (System.currentTimeMillis())
+     *
+     * @return Slot
+     */
+    private long getSlot(long timeMillis) {
+        //wall clock times are positive, so the division floors
+        return (timeMillis + SLOT_TOLERANCE_MILLIS) / getPlaylistIntervalMillis();
+    }
+
+    /**
+     * Get rotation angle
+     *
+     * @return Rotation angle in degrees (0-359)
+     */
+    public int getRotationAngle() {
+        return rotationAngle;
+    }
+
+    /**
+     * Get alignment of the lines
+     *
+     * @return Alignment
+     */
+    public TextAlignment getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * Get word wrapping
+     *
+     * @return Wrap mode
+     */
+    public WrapMode getWrapMode() {
+        return wrapMode;
+    }
+
+    /**
+     * Fit text to screen?
+     *
+     * @return Fit text to screen?
+     */
+    public boolean isAutoFit() {
+        return autoFit;
+    }
+
+    /**
+     * Get dithering
+     *
+     * @return Dithering
+     */
+    public Dithering getDithering() {
+        return dithering;
+    }
+
+    /**
+     * Serialize to a JSON string
+     *
+     * @return JSON string
+     */
+    public String toJson() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put(JSON_TEXT, text);
+            json.put(JSON_ROTATION_ANGLE, rotationAngle);
+            json.put(JSON_ALIGNMENT, alignment.name());
+            json.put(JSON_WRAP_MODE, wrapMode.name());
+            json.put(JSON_AUTO_FIT, autoFit);
+            json.put(JSON_DITHERING, dithering.name());
+            json.put(JSON_PLAYLIST_INTERVAL, playlistInterval);
+            json.put(JSON_REFRESH_INTERVAL, refreshInterval);
+            return json.toString();
+        } catch (JSONException e) {
+            //only happens for non-finite numbers
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deserialize from a JSON string, missing values are taken from defaults
+     *
+     * @param jsonString JSON string
+     * @param defaults   Default config
+     *
+     * @return Widget config
+     *
+     * @throws JSONException on invalid JSON
+     */
+    public static WidgetConfig fromJson(String jsonString, WidgetConfig defaults) throws JSONException {
+        JSONObject json = new JSONObject(jsonString);
+
+        //45° steps before there was a free angle
+        int rotationAngle = defaults.rotationAngle;
+        if (json.has(JSON_LEGACY_ROTATION)) {
+            rotationAngle = Utilities.getRotationAngleByPosition(json.optInt(JSON_LEGACY_ROTATION));
+        }
+
+        //centered or left aligned before there was an alignment
+        TextAlignment alignment = defaults.alignment;
+        if (json.has(JSON_LEGACY_CENTER_TEXT)) {
+            alignment = json.optBoolean(JSON_LEGACY_CENTER_TEXT) ? TextAlignment.CENTER : TextAlignment.LEFT;
+        }
+
+        return new WidgetConfig(
+                json.optString(JSON_TEXT, defaults.text),
+                json.optInt(JSON_ROTATION_ANGLE, rotationAngle),
+                parseEnum(TextAlignment.class, json.optString(JSON_ALIGNMENT), alignment),
+                parseEnum(WrapMode.class, json.optString(JSON_WRAP_MODE), defaults.wrapMode),
+                json.optBoolean(JSON_AUTO_FIT, defaults.autoFit),
+                parseEnum(Dithering.class, json.optString(JSON_DITHERING), defaults.dithering),
+                json.optInt(JSON_PLAYLIST_INTERVAL, defaults.playlistInterval),
+                json.optInt(JSON_REFRESH_INTERVAL, defaults.refreshInterval));
+    }
+
+    /**
+     * Split a text into playlist texts, blank texts are skipped
+     *
+     * @param text Text with separator lines
+     *
+     * @return Texts (at least one)
+     */
+    private static String[] splitPlaylist(String text) {
+        List<String> texts = new ArrayList<>();
+        int start = 0;
+        String[] lines = text.split("\n", -1);
+        for (int i = 0; i <= lines.length; i++) {
+            if (i == lines.length || lines[i].equals(PLAYLIST_SEPARATOR)) {
+                String playlistText = join(lines, start, i);
+                if (!playlistText.trim().isEmpty()) {
+                    texts.add(playlistText);
+                }
+                start = i + 1;
+            }
+        }
+
+        if (texts.isEmpty()) {
+            return new String[]{text};
+        }
+        return texts.toArray(new String[texts.size()]);
+    }
+
+    /**
+     * Join lines with line breaks
+     *
+     * @param lines Lines
+     * @param start First line
+     * @param end   Line after the last line
+     *
+     * @return Text
+     */
+    private static String join(String[] lines, int start, int end) {
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                text.append('\n');
+            }
+            text.append(lines[i]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parse an enum name, unknown names (e.g. of a newer version) fall back to the default
+     *
+     * @param type     Enum type
+     * @param name     Enum name
+     * @param defaults Default value
+     *
+     * @return Enum value
+     */
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, E defaults) {
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return defaults;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        WidgetConfig that = (WidgetConfig) o;
+        return rotationAngle == that.rotationAngle
+                && alignment == that.alignment
+                && wrapMode == that.wrapMode
+                && autoFit == that.autoFit
+                && dithering == that.dithering
+                && playlistInterval == that.playlistInterval
+                && refreshInterval == that.refreshInterval
+                && text.equals(that.text);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = text.hashCode();
+        result = 31 * result + rotationAngle;
+        result = 31 * result + alignment.hashCode();
+        result = 31 * result + wrapMode.hashCode();
+        result = 31 * result + (autoFit ? 1 : 0);
+        result = 31 * result + dithering.hashCode();
+        result = 31 * result + playlistInterval;
+        result = 31 * result + refreshInterval;
+        return result;
+    }
+}
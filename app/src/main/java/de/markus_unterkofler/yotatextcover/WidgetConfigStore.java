@@ -0,0 +1,245 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.json.JSONException;
+
+import java.util.Map;
+
+/**
+ * Stores the configs of all widgets.
+ * Everything is loaded once, reads come from memory and writes are batched into one asynchronous commit.
+ */
+public class WidgetConfigStore {
+    private static final String TAG = WidgetConfigStore.class.getSimpleName();
+
+    private static final String sharedPrefsTag = "yotatextcover"; //@FIXME: change to package name (workaround for current users needed)
+    private static final String prefPrefixWidget = "widget_";
+
+    /** Keys of the old one-value-per-key format, migrated on load */
+    private static final String legacyPrefixText = "bigText_";
+    private static final String legacyPrefixRotation = "rotation_";
+    private static final String legacyPrefixCenterText = "centerText_";
+    private static final String legacyPrefixAutoFit = "autoFit_";
+
+    private final SharedPreferences sharedPrefs;
+    private final WidgetConfig defaultConfig;
+
+    /** Configs by widget ID (guarded by this) */
+    private final SparseArray<WidgetConfig> configs = new SparseArray<>();
+
+    /**
+     * Create the store and load all widget configs
+     *
+     * @param context Context
+     */
+    public WidgetConfigStore(Context context) {
+        sharedPrefs = context.getSharedPreferences(sharedPrefsTag, Context.MODE_PRIVATE);
+        defaultConfig = new WidgetConfig(context.getString(R.string.text_default), 0, TextAlignment.CENTER, WrapMode.NONE, false, Dithering.NONE, 0, 1);
+
+        load();
+    }
+
+    /**
+     * Get the default config for new widgets
+     *
+     * @return Default config
+     */
+    public WidgetConfig getDefaultConfig() {
+        return defaultConfig;
+    }
+
+    /**
+     * Get the config of a widget
+     *
+     * @param widgetId Widget ID
+     *
+     * @return Widget config (default config for unknown widgets)
+     */
+    public synchronized WidgetConfig get(int widgetId) {
+        return configs.get(widgetId, defaultConfig);
+    }
+
+    /**
+     * Get IDs of all configured widgets
+     *
+     * @return Widget IDs
+     */
+    public synchronized int[] getWidgetIds() {
+        int[] widgetIds = new int[configs.size()];
+        for (int i = 0; i < widgetIds.length; i++) {
+            widgetIds[i] = configs.keyAt(i);
+        }
+        return widgetIds;
+    }
+
+    /**
+     * Set the config of widgets, written to disk in the background in one go
+     *
+     * @param widgetIds Widget IDs
+     * @param config    Widget config
+     */
+    public synchronized void put(int[] widgetIds, WidgetConfig config) {
+        SharedPreferences.Editor editor = sharedPrefs.edit();
+        String json = config.toJson();
+
+        for (int widgetId : widgetIds) {
+            configs.put(widgetId, config);
+            editor.putString(prefPrefixWidget + widgetId, json);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Remove the config of widgets
+     *
+     * @param widgetIds Widget IDs
+     */
+    public synchronized void remove(int[] widgetIds) {
+        SharedPreferences.Editor editor = sharedPrefs.edit();
+
+        for (int widgetId : widgetIds) {
+            configs.remove(widgetId);
+            editor.remove(prefPrefixWidget + widgetId);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Load all widget configs and migrate old preferences
+     */
+    private synchronized void load() {
+        SharedPreferences.Editor migration = null;
+
+        for (Map.Entry<String, ?> pref : sharedPrefs.getAll().entrySet()) {
+            String key = pref.getKey();
+
+            if (key.startsWith(prefPrefixWidget)) {
+                int widgetId = parseWidgetId(key, prefPrefixWidget);
+                try {
+                    if (widgetId >= 0) {
+                        configs.put(widgetId, WidgetConfig.fromJson(String.valueOf(pref.getValue()), defaultConfig));
+                    }
+                } catch (JSONException e) {
+                    Log.w(TAG, "Ignoring broken widget config " + key, e);
+                }
+            } else if (isLegacyKey(key)) {
+                if (migration == null) {
+                    migration = sharedPrefs.edit();
+                }
+                migrateLegacyKey(key, pref.getValue(), migration);
+            }
+        }
+
+        if (migration != null) {
+            for (int i = 0; i < configs.size(); i++) {
+                migration.putString(prefPrefixWidget + configs.keyAt(i), configs.valueAt(i).toJson());
+            }
+            migration.apply();
+
+            Log.d(TAG, "Migrated old preferences of " + configs.size() + " widgets.");
+        }
+    }
+
+    /**
+     * Check if a key belongs to the old one-value-per-key format
+     *
+     * @param key Preference key
+     *
+     * @return Old key?
+     */
+    private static boolean isLegacyKey(String key) {
+        return key.startsWith(legacyPrefixText) || key.startsWith(legacyPrefixRotation)
+                || key.startsWith(legacyPrefixCenterText) || key.startsWith(legacyPrefixAutoFit);
+    }
+
+    /**
+     * Merge an old preference into the config of its widget and remove it
+     *
+     * @param key       Old preference key
+     * @param value     Old preference value
+     * @param migration Editor of the migration
+     */
+    private void migrateLegacyKey(String key, Object value, SharedPreferences.Editor migration) {
+        migration.remove(key);
+
+        int widgetId;
+        if (key.startsWith(legacyPrefixText)) {
+            widgetId = parseWidgetId(key, legacyPrefixText);
+        } else if (key.startsWith(legacyPrefixRotation)) {
+            widgetId = parseWidgetId(key, legacyPrefixRotation);
+        } else if (key.startsWith(legacyPrefixCenterText)) {
+            widgetId = parseWidgetId(key, legacyPrefixCenterText);
+        } else {
+            widgetId = parseWidgetId(key, legacyPrefixAutoFit);
+        }
+
+        //centerText was read without widget ID but written with it, the widget's own value is the one the user picked
+        if (widgetId < 0) {
+            return;
+        }
+
+        WidgetConfig config = configs.get(widgetId, defaultConfig);
+        String text = config.getText();
+        int rotationAngle = config.getRotationAngle();
+        TextAlignment alignment = config.getAlignment();
+        boolean autoFit = config.isAutoFit();
+
+        if (key.startsWith(legacyPrefixText) && value instanceof String) {
+            text = (String) value;
+        } else if (key.startsWith(legacyPrefixRotation) && value instanceof Integer) {
+            rotationAngle = Utilities.getRotationAngleByPosition((Integer) value);
+        } else if (key.startsWith(legacyPrefixCenterText) && value instanceof Boolean) {
+            alignment = (Boolean) value ? TextAlignment.CENTER : TextAlignment.LEFT;
+        } else if (key.startsWith(legacyPrefixAutoFit) && value instanceof Boolean) {
+            autoFit = (Boolean) value;
+        }
+
+        configs.put(widgetId, new WidgetConfig(text, rotationAngle, alignment, config.getWrapMode(), autoFit, config.getDithering(), config.getPlaylistInterval(), config.getRefreshInterval()));
+    }
+
+    /**
+     * Get the widget ID from a preference key
+     *
+     * @param key    Preference key
+     * @param prefix Key prefix
+     *
+     * @return Widget ID or -1 if the key has none
+     */
+    private static int parseWidgetId(String key, String prefix) {
+        try {
+            return Integer.parseInt(key.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
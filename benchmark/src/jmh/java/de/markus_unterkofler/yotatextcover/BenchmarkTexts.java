@@ -0,0 +1,56 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Texts for benchmarks
+ */
+final class BenchmarkTexts {
+    private static final String WORDS = "Lorem ipsum dolor sit amet consetetur sadipscing elitr sed diam nonumy eirmod tempor ";
+
+    private BenchmarkTexts() {
+    }
+
+    /**
+     * Create a text
+     *
+     * @param lineCount  Number of lines
+     * @param lineLength Chars per line
+     *
+     * @return Text
+     */
+    static String create(int lineCount, int lineLength) {
+        StringBuilder text = new StringBuilder(lineCount * (lineLength + 1));
+        for (int line = 0; line < lineCount; line++) {
+            if (line > 0) {
+                text.append('\n');
+            }
+            for (int i = 0; i < lineLength; i++) {
+                text.append(WORDS.charAt((line * 7 + i) % WORDS.length()));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dithering of a full screen frame of anti-aliased text, single threaded and split into bands
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DitherBenchmark {
+    @Param({"THRESHOLD", "BAYER", "FLOYD_STEINBERG", "ATKINSON"})
+    public Dithering dithering;
+
+    @Param({"GREY_16", "MONO"})
+    public OutputMode outputMode;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private int width;
+    private int height;
+    private byte[] frame;
+    private byte[] pixels;
+    private Ditherer ditherer;
+
+    @Setup
+    public void setUp() {
+        //auto fitted, rotated text fills the screen with plenty of anti-aliased edges
+        AwtTextRasterizer rasterizer = new AwtTextRasterizer(BenchmarkScreen.WIDTH, BenchmarkScreen.HEIGHT);
+        BufferedImage image = rasterizer.render(BenchmarkTexts.create(10, 12), TextLayout.AUTO_FIT_TEXT_SIZE, 45, TextAlignment.CENTER, WrapMode.NONE, OutputMode.ALPHA, Dithering.NONE);
+
+        width = image.getWidth();
+        height = image.getHeight();
+        frame = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        pixels = new byte[frame.length];
+        ditherer = new Ditherer(parallelism);
+    }
+
+    @Benchmark
+    public byte[] dither() {
+        System.arraycopy(frame, 0, pixels, 0, frame.length);
+        ditherer.dither(pixels, 0, width, height, width, outputMode, dithering);
+        return pixels;
+    }
+}
@@ -0,0 +1,74 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurement, layout and auto fit across text lengths, line counts and wrap modes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+    @Param({"1", "3", "10"})
+    public int lineCount;
+
+    @Param({"5", "20", "60"})
+    public int lineLength;
+
+    @Param({"NONE", "GREEDY", "OPTIMAL"})
+    public WrapMode wrapMode;
+
+    private String text;
+    private TextLayout layout;
+
+    @Setup
+    public void setUp() {
+        text = BenchmarkTexts.create(lineCount, lineLength);
+        layout = new AwtTextRasterizer(BenchmarkScreen.WIDTH, BenchmarkScreen.HEIGHT).getLayout();
+    }
+
+    @Benchmark
+    public TextLayout layout() {
+        layout.invalidate();
+        layout.layout(text, BenchmarkScreen.TEXT_SIZE, 0, TextAlignment.CENTER, wrapMode);
+        return layout;
+    }
+
+    @Benchmark
+    public float autoFit() {
+        return layout.fitTextSize(text, 0, wrapMode);
+    }
+}
@@ -0,0 +1,76 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full renders (rotation, rasterization, quantization) across all angles, line counts and output modes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RasterizeBenchmark {
+    @Param({"0", "45", "90", "135", "180", "225", "270", "315"})
+    public int rotationAngle;
+
+    @Param({"1", "3", "10"})
+    public int lineCount;
+
+    @Param({"ARGB", "ALPHA", "GREY_16", "GREY_4", "MONO"})
+    public OutputMode outputMode;
+
+    private String text;
+    private AwtTextRasterizer rasterizer;
+
+    @Setup
+    public void setUp() {
+        text = BenchmarkTexts.create(lineCount, 12);
+        rasterizer = new AwtTextRasterizer(BenchmarkScreen.WIDTH, BenchmarkScreen.HEIGHT);
+        rasterizer.getLayout().layout(text, BenchmarkScreen.TEXT_SIZE, rotationAngle, TextAlignment.CENTER, WrapMode.NONE);
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        rasterizer.getLayout().invalidate();
+        return rasterizer.render(text, BenchmarkScreen.TEXT_SIZE, rotationAngle, TextAlignment.CENTER, WrapMode.NONE, outputMode, Dithering.THRESHOLD);
+    }
+
+    @Benchmark
+    public BufferedImage rasterizeOnly() {
+        //layout done in setUp, measures drawing, rotation and quantization alone
+        return rasterizer.render(rasterizer.getLayout(), outputMode, Dithering.THRESHOLD);
+    }
+}
@@ -0,0 +1,266 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Quantizes alpha pixels to the levels of an output mode, with dithering.
+ * Works in place on primitive arrays, split into row bands that are dithered in parallel.
+ * Error diffusion starts over in every band, bands are tall enough that the seams do not show.
+ * Keeps its band tasks and error buffers between calls, so dithering does not allocate once warmed up.
+ * Not thread safe, use one ditherer per thread.
+ */
+public class Ditherer {
+    /** Shared by all ditherers, worker threads are daemons */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Smaller images are not worth splitting */
+    private static final int MIN_BAND_ROWS = 64;
+    private static final int MIN_PARALLEL_PIXELS = 64 * 1024;
+
+    /** 8x8 Bayer threshold matrix (0-63) */
+    private static final int[] BAYER_MATRIX = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    private final int parallelism;
+    private Band[] bands = new Band[0];
+
+    /**
+     * Create a ditherer that uses all cores
+     */
+    public Ditherer() {
+        this(POOL.getParallelism());
+    }
+
+    /**
+     * Create a ditherer
+     *
+     * @param parallelism Max. number of bands dithered at the same time (1 dithers on the calling thread only)
+     */
+    public Ditherer(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Quantize alpha values in place
+     *
+     * @param pixels     Alpha values, one byte per pixel
+     * @param offset     Index of the first pixel
+     * @param width      Width in pixels
+     * @param height     Height in pixels
+     * @param stride     Bytes per row
+     * @param outputMode Output mode with the target levels (nothing happens for unquantized modes)
+     * @param dithering  Dithering algorithm
+     */
+    public void dither(byte[] pixels, int offset, int width, int height, int stride, OutputMode outputMode, Dithering dithering) {
+        if (!outputMode.isQuantized() || width <= 0 || height <= 0) {
+            return;
+        }
+
+        int bandCount = 1;
+        if ((long) width * height >= MIN_PARALLEL_PIXELS) {
+            bandCount = Math.max(1, Math.min(parallelism, height / MIN_BAND_ROWS));
+        }
+
+        if (bands.length < bandCount) {
+            Band[] newBands = Arrays.copyOf(bands, bandCount);
+            for (int i = bands.length; i < bandCount; i++) {
+                newBands[i] = new Band();
+            }
+            bands = newBands;
+        }
+
+        for (int i = 0; i < bandCount; i++) {
+            bands[i].set(pixels, offset, width, stride, height * i / bandCount, height * (i + 1) / bandCount, outputMode, dithering);
+        }
+
+        //fork all but the first band, the calling thread does that one itself
+        for (int i = 1; i < bandCount; i++) {
+            bands[i].reinitialize();
+            POOL.execute(bands[i]);
+        }
+        bands[0].ditherRows();
+        for (int i = 1; i < bandCount; i++) {
+            bands[i].join();
+        }
+    }
+
+    /**
+     * Rows of an image, dithered as one piece
+     */
+    private static class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private byte[] pixels;
+        private int offset;
+        private int width;
+        private int stride;
+        private int startRow;
+        private int endRow;
+        private OutputMode outputMode;
+        private Dithering dithering;
+
+        /** Diffused errors of the current and the next two rows, indexed x + 1 */
+        private int[] errors0 = new int[0];
+        private int[] errors1 = new int[0];
+        private int[] errors2 = new int[0];
+
+        void set(byte[] pixels, int offset, int width, int stride, int startRow, int endRow, OutputMode outputMode, Dithering dithering) {
+            this.pixels = pixels;
+            this.offset = offset;
+            this.width = width;
+            this.stride = stride;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.outputMode = outputMode;
+            this.dithering = dithering;
+        }
+
+        @Override
+        protected void compute() {
+            ditherRows();
+        }
+
+        void ditherRows() {
+            try {
+                switch (dithering) {
+                    case BAYER:
+                        bayer();
+                        break;
+                    case FLOYD_STEINBERG:
+                        prepareErrors();
+                        floydSteinberg();
+                        break;
+                    case ATKINSON:
+                        prepareErrors();
+                        atkinson();
+                        break;
+                    default:
+                        for (int y = startRow; y < endRow; y++) {
+                            outputMode.quantize(pixels, offset + y * stride, width);
+                        }
+                        break;
+                }
+            } finally {
+                //do not keep the image alive
+                pixels = null;
+            }
+        }
+
+        private void bayer() {
+            //threshold offsets span one level step
+            int step = 255 / (outputMode.levels - 1);
+            for (int y = startRow; y < endRow; y++) {
+                int row = offset + y * stride;
+                int matrixRow = (y & 7) << 3;
+                for (int x = 0; x < width; x++) {
+                    int threshold = (2 * BAYER_MATRIX[matrixRow + (x & 7)] + 1) * step / 128 - step / 2;
+                    pixels[row + x] = (byte) outputMode.quantize(clamp((pixels[row + x] & 0xFF) + threshold));
+                }
+            }
+        }
+
+        private void floydSteinberg() {
+            //errors in 1/16
+            for (int y = startRow; y < endRow; y++) {
+                int row = offset + y * stride;
+                for (int x = 0; x < width; x++) {
+                    int value = clamp((pixels[row + x] & 0xFF) + errors0[x + 1] / 16);
+                    int level = outputMode.quantize(value);
+                    pixels[row + x] = (byte) level;
+
+                    int error = value - level;
+                    errors0[x + 2] += error * 7;
+                    errors1[x] += error * 3;
+                    errors1[x + 1] += error * 5;
+                    errors1[x + 2] += error;
+                }
+                rotateErrors();
+            }
+        }
+
+        private void atkinson() {
+            //errors in 1/8, only 6/8 of the error is passed on
+            for (int y = startRow; y < endRow; y++) {
+                int row = offset + y * stride;
+                for (int x = 0; x < width; x++) {
+                    int value = clamp((pixels[row + x] & 0xFF) + errors0[x + 1] / 8);
+                    int level = outputMode.quantize(value);
+                    pixels[row + x] = (byte) level;
+
+                    int error = value - level;
+                    errors0[x + 2] += error;
+                    errors0[x + 3] += error;
+                    errors1[x] += error;
+                    errors1[x + 1] += error;
+                    errors1[x + 2] += error;
+                    errors2[x + 1] += error;
+                }
+                rotateErrors();
+            }
+        }
+
+        /**
+         * Clear the error buffers, grow them if needed (x - 1 to x + 2 are written)
+         */
+        private void prepareErrors() {
+            if (errors0.length < width + 3) {
+                errors0 = new int[width + 3];
+                errors1 = new int[width + 3];
+                errors2 = new int[width + 3];
+            } else {
+                Arrays.fill(errors0, 0);
+                Arrays.fill(errors1, 0);
+                Arrays.fill(errors2, 0);
+            }
+        }
+
+        /**
+         * Move on to the next row: next rows become current, the freed row is cleared
+         */
+        private void rotateErrors() {
+            int[] done = errors0;
+            errors0 = errors1;
+            errors1 = errors2;
+            errors2 = done;
+            Arrays.fill(errors2, 0);
+        }
+
+        private static int clamp(int value) {
+            return value < 0 ? 0 : (value > 255 ? 255 : value);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Breaks paragraphs into lines at word boundaries, the first line of a paragraph keeps its leading indentation.
+ * Word advances are measured once per text at a reference size and scaled, so breaking the same text at another
+ * size or width (rotation, auto fit) does not measure again. Break results are cached by text, size, width and mode.
+ * Not thread safe.
+ */
+class LineBreaker {
+    private static final int RUNS_CACHE_SIZE = 16;
+    private static final int BREAKS_CACHE_SIZE = 64;
+
+    private final TextMeasurer measurer;
+    private final float referenceTextSize;
+
+    /** Measured words per text (LRU) */
+    private final Map<String, Runs> runsCache = new LinkedHashMap<String, Runs>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Runs> eldest) {
+            return size() > RUNS_CACHE_SIZE;
+        }
+    };
+
+    /** Break results (LRU), looked up with a reused probe key */
+    private final Map<BreaksKey, Breaks> breaksCache = new LinkedHashMap<BreaksKey, Breaks>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BreaksKey, Breaks> eldest) {
+            return size() > BREAKS_CACHE_SIZE;
+        }
+    };
+    private final BreaksKey probeKey = new BreaksKey();
+
+    //scratch arrays of the optimal fit
+    private double[] costs = new double[0];
+    private int[] nextLines = new int[0];
+
+    /**
+     * Create a line breaker
+     *
+     * @param measurer          Measurer
+     * @param referenceTextSize Text size words are measured at
+     */
+    LineBreaker(TextMeasurer measurer, float referenceTextSize) {
+        this.measurer = measurer;
+        this.referenceTextSize = referenceTextSize;
+    }
+
+    /**
+     * Break a text into lines
+     *
+     * @param text     Text
+     * @param textSize Text size
+     * @param maxWidth Max. line width at the text size
+     * @param wrapMode Wrap mode (not {@link WrapMode#NONE})
+     *
+     * @return Lines (shared with the cache, do not modify)
+     */
+    Breaks breakLines(String text, float textSize, float maxWidth, WrapMode wrapMode) {
+        probeKey.set(text, textSize, maxWidth, wrapMode);
+        Breaks breaks = breaksCache.get(probeKey);
+        if (breaks != null) {
+            return breaks;
+        }
+
+        Runs runs = getRuns(text);
+        float maxReferenceWidth = maxWidth * referenceTextSize / textSize;
+        breaks = new Breaks(runs.wordCount + runs.paragraphCount);
+        for (int i = 0; i < runs.paragraphCount; i++) {
+            int firstWord = runs.paragraphFirstWords[i];
+            int endWord = runs.paragraphFirstWords[i + 1];
+            if (firstWord == endWord) {
+                //empty line
+                breaks.add(runs.paragraphStarts[i], runs.paragraphStarts[i], 0);
+            } else if (wrapMode == WrapMode.OPTIMAL) {
+                breakOptimal(runs, runs.paragraphStarts[i], firstWord, endWord, maxReferenceWidth, breaks);
+            } else {
+                breakGreedy(runs, runs.paragraphStarts[i], firstWord, endWord, maxReferenceWidth, breaks);
+            }
+        }
+
+        breaksCache.put(new BreaksKey().set(text, textSize, maxWidth, wrapMode), breaks);
+        return breaks;
+    }
+
+    /**
+     * Fill each line with as many words as fit, words wider than a line get their own line
+     */
+    private static void breakGreedy(Runs runs, int paragraphStart, int firstWord, int endWord, float maxWidth, Breaks breaks) {
+        //the first line starts with the paragraph's indentation, wrapped lines at their first word
+        int lineStart = paragraphStart;
+        float width = runs.gapAdvances[firstWord] + runs.wordAdvances[firstWord];
+        for (int word = firstWord + 1; word < endWord; word++) {
+            float wordWidth = runs.gapAdvances[word] + runs.wordAdvances[word];
+            if (width + wordWidth > maxWidth) {
+                breaks.add(lineStart, runs.wordEnds[word - 1], width);
+                lineStart = runs.wordStarts[word];
+                width = runs.wordAdvances[word];
+            } else {
+                width += wordWidth;
+            }
+        }
+        breaks.add(lineStart, runs.wordEnds[endWord - 1], width);
+    }
+
+    /**
+     * Minimize the sum of squared free space of all but the last line (dynamic programming from the end)
+     */
+    private void breakOptimal(Runs runs, int paragraphStart, int firstWord, int endWord, float maxWidth, Breaks breaks) {
+        int count = endWord - firstWord;
+        if (costs.length < count + 1) {
+            costs = new double[count + 1];
+            nextLines = new int[count + 1];
+        }
+
+        costs[count] = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            costs[i] = Double.POSITIVE_INFINITY;
+            float width = getFirstWordWidth(runs, firstWord, i);
+            for (int j = i; j < count; j++) {
+                if (j > i) {
+                    width += runs.gapAdvances[firstWord + j] + runs.wordAdvances[firstWord + j];
+                    if (width > maxWidth) {
+                        break;
+                    }
+                }
+
+                //the last line may be short, a single word may be too long
+                double free = Math.max(0, maxWidth - width);
+                double cost = (j == count - 1 ? 0 : free * free) + costs[j + 1];
+                if (cost < costs[i]) {
+                    costs[i] = cost;
+                    nextLines[i] = j + 1;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i = nextLines[i]) {
+            int lastWord = firstWord + nextLines[i] - 1;
+            float width = getFirstWordWidth(runs, firstWord, i);
+            for (int word = firstWord + i + 1; word <= lastWord; word++) {
+                width += runs.gapAdvances[word] + runs.wordAdvances[word];
+            }
+            breaks.add(i == 0 ? paragraphStart : runs.wordStarts[firstWord + i], runs.wordEnds[lastWord], width);
+        }
+    }
+
+    /**
+     * Get the width of the first word of a line, with the indentation in front of it on a paragraph's first line
+     *
+     * @param runs      Words
+     * @param firstWord First word of the paragraph
+     * @param i         Index of the line's first word in the paragraph
+     *
+     * @return Width at the reference size
+     */
+    private static float getFirstWordWidth(Runs runs, int firstWord, int i) {
+        return (i == 0 ? runs.gapAdvances[firstWord] : 0) + runs.wordAdvances[firstWord + i];
+    }
+
+    /**
+     * Get the measured words of a text, measures only on first use
+     *
+     * @param text Text
+     *
+     * @return Words
+     */
+    private Runs getRuns(String text) {
+        Runs runs = runsCache.get(text);
+        if (runs == null) {
+            runs = measureRuns(text);
+            runsCache.put(text, runs);
+        }
+        return runs;
+    }
+
+    /**
+     * Find paragraphs and words of a text and measure them at the reference size
+     *
+     * @param text Text
+     *
+     * @return Words
+     */
+    private Runs measureRuns(String text) {
+        measurer.setTextSize(referenceTextSize);
+        float spaceAdvance = measurer.measureText(" ", 0, 1);
+
+        //paragraphs like text.split("\n"), trailing empty ones are dropped
+        int length = text.length();
+        while (length > 0 && text.charAt(length - 1) == '\n') {
+            length--;
+        }
+
+        Runs runs = new Runs(text.length());
+        int paragraphStart = 0;
+        while (true) {
+            int paragraphEnd = text.indexOf('\n', paragraphStart);
+            if (paragraphEnd < 0 || paragraphEnd > length) {
+                paragraphEnd = length;
+            }
+
+            runs.startParagraph(paragraphStart);
+            int gap = 0;
+            int i = paragraphStart;
+            while (i < paragraphEnd) {
+                if (text.charAt(i) == ' ' || text.charAt(i) == '\t') {
+                    gap++;
+                    i++;
+                    continue;
+                }
+
+                int wordStart = i;
+                while (i < paragraphEnd && text.charAt(i) != ' ' && text.charAt(i) != '\t') {
+                    i++;
+                }
+                runs.addWord(wordStart, i, measurer.measureText(text, wordStart, i), gap * spaceAdvance);
+                gap = 0;
+            }
+
+            if (paragraphEnd >= length) {
+                break;
+            }
+            paragraphStart = paragraphEnd + 1;
+        }
+        runs.finish();
+
+        return runs;
+    }
+
+    /**
+     * Words of a text with their advances at the reference size
+     */
+    private static class Runs {
+        int wordCount;
+        int[] wordStarts;
+        int[] wordEnds;
+        float[] wordAdvances;
+        /** Advance of the spaces in front of a word */
+        float[] gapAdvances;
+
+        int paragraphCount;
+        int[] paragraphStarts;
+        /** First word of each paragraph, one more entry for the end */
+        int[] paragraphFirstWords;
+
+        Runs(int maxCount) {
+            //a text has at most one word or paragraph per char (+1 for the empty text)
+            wordStarts = new int[maxCount];
+            wordEnds = new int[maxCount];
+            wordAdvances = new float[maxCount];
+            gapAdvances = new float[maxCount];
+            paragraphStarts = new int[maxCount + 1];
+            paragraphFirstWords = new int[maxCount + 2];
+        }
+
+        void startParagraph(int start) {
+            paragraphStarts[paragraphCount] = start;
+            paragraphFirstWords[paragraphCount] = wordCount;
+            paragraphCount++;
+        }
+
+        void addWord(int start, int end, float advance, float gapAdvance) {
+            wordStarts[wordCount] = start;
+            wordEnds[wordCount] = end;
+            wordAdvances[wordCount] = advance;
+            gapAdvances[wordCount] = gapAdvance;
+            wordCount++;
+        }
+
+        void finish() {
+            paragraphFirstWords[paragraphCount] = wordCount;
+        }
+    }
+
+    /**
+     * Lines of a broken text
+     */
+    static class Breaks {
+        private int count;
+        private final int[] starts;
+        private final int[] ends;
+        /** Line widths at the reference size */
+        private final float[] referenceWidths;
+
+        Breaks(int maxCount) {
+            starts = new int[maxCount];
+            ends = new int[maxCount];
+            referenceWidths = new float[maxCount];
+        }
+
+        void add(int start, int end, float referenceWidth) {
+            starts[count] = start;
+            ends[count] = end;
+            referenceWidths[count] = referenceWidth;
+            count++;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        int getStart(int line) {
+            return starts[line];
+        }
+
+        int getEnd(int line) {
+            return ends[line];
+        }
+
+        float getReferenceWidth(int line) {
+            return referenceWidths[line];
+        }
+
+        float getMaxReferenceWidth() {
+            float max = 0;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, referenceWidths[i]);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Cache key of break results
+     */
+    private static class BreaksKey {
+        private String text;
+        private float textSize;
+        private float maxWidth;
+        private WrapMode wrapMode;
+
+        BreaksKey set(String text, float textSize, float maxWidth, WrapMode wrapMode) {
+            this.text = text;
+            this.textSize = textSize;
+            this.maxWidth = maxWidth;
+            this.wrapMode = wrapMode;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BreaksKey)) {
+                return false;
+            }
+
+            BreaksKey that = (BreaksKey) o;
+            return textSize == that.textSize
+                    && maxWidth == that.maxWidth
+                    && wrapMode == that.wrapMode
+                    && text.equals(that.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + Float.floatToIntBits(maxWidth);
+            result = 31 * result + wrapMode.hashCode();
+            return result;
+        }
+    }
+}
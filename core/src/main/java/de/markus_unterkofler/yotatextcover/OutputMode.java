@@ -0,0 +1,108 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Pixel format of rendered text images.
+ * The back screen is greyscale and the text is white on transparent, so the alpha channel alone carries the whole image.
+ */
+public enum OutputMode {
+    /** Full color, 4 bytes per pixel */
+    ARGB(0),
+    /** Alpha only, 1 byte per pixel with 256 levels */
+    ALPHA(256),
+    /** Alpha only, quantized to the 16 grey levels of the back screen panel */
+    GREY_16(16),
+    /** Alpha only, quantized to 4 levels */
+    GREY_4(4),
+    /** Alpha only, quantized to on/off */
+    MONO(2);
+
+    /** Number of alpha levels (0 for full color) */
+    public final int levels;
+
+    /** Quantization lookup table (alpha value to level value) */
+    private final byte[] levelTable = new byte[256];
+
+    OutputMode(int levels) {
+        this.levels = levels;
+
+        for (int alpha = 0; alpha < 256; alpha++) {
+            int value = alpha;
+            if (levels > 1 && levels < 256) {
+                int level = Math.round(alpha * (levels - 1) / 255f);
+                value = level * 255 / (levels - 1);
+            }
+            levelTable[alpha] = (byte) value;
+        }
+    }
+
+    /**
+     * Alpha channel only?
+     *
+     * @return Alpha only?
+     */
+    public boolean isAlphaOnly() {
+        return levels > 0;
+    }
+
+    /**
+     * Fewer than 256 alpha levels?
+     *
+     * @return Needs quantization?
+     */
+    public boolean isQuantized() {
+        return levels > 1 && levels < 256;
+    }
+
+    /**
+     * Quantize a single alpha value to the nearest level of this mode
+     *
+     * @param alpha Alpha value (0-255)
+     *
+     * @return Level value (0-255)
+     */
+    public int quantize(int alpha) {
+        return levelTable[alpha] & 0xFF;
+    }
+
+    /**
+     * Quantize alpha values to the levels of this mode, in place
+     *
+     * @param pixels Alpha values
+     * @param offset First value
+     * @param length Number of values
+     */
+    public void quantize(byte[] pixels, int offset, int length) {
+        if (!isQuantized()) {
+            //nothing to reduce
+            return;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            pixels[i] = levelTable[pixels[i] & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Platform independent layout of a text: lines (optionally word wrapped), their positions and the rotated bounding box.
+ * Vertical positions follow the font metrics (ascent, descent and leading).
+ * Holds the result of the last layout and reuses its arrays, so unwrapped layouts do not allocate once warmed up.
+ * Not thread safe.
+ */
+public class TextLayout {
+    /** Auto fit: text size range and size the line advances and font metrics are measured at */
+    public static final int AUTO_FIT_TEXT_SIZE = 0;
+    private static final int MIN_FIT_TEXT_SIZE = 8;
+    private static final int MAX_FIT_TEXT_SIZE = 1000;
+    private static final float REFERENCE_TEXT_SIZE = 100;
+    private static final int REFERENCE_ADVANCE_CACHE_SIZE = 64;
+
+    /** Max. number of times wrapped lines are broken again because a real line came out too wide */
+    private static final int MAX_REWRAPS = 4;
+
+    private final TextMeasurer measurer;
+    private final int screenWidth;
+    private final int screenHeight;
+    private final LineBreaker lineBreaker;
+
+    /** Advance of single lines at the reference text size, measured once per line text (LRU) */
+    private final Map<String, Float> referenceAdvances = new LinkedHashMap<String, Float>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+            return size() > REFERENCE_ADVANCE_CACHE_SIZE;
+        }
+    };
+
+    /** Font metrics at the reference text size, they scale linearly with the text size */
+    private boolean metricsMeasured = false;
+    private float referenceAscent;
+    private float referenceDescent;
+    private float referenceLeading;
+
+    //inputs of the last layout, an identical layout request is answered without measuring again
+    private boolean laidOut = false;
+    private float requestedTextSize;
+    private TextAlignment alignment;
+    private WrapMode wrapMode;
+
+    //result of the last layout
+    private String text = "";
+    private float textSize;
+    private int rotationAngle;
+    private int lineCount;
+    private int[] lineStarts = new int[16];
+    private int[] lineEnds = new int[16];
+    private int[] lineX = new int[16];
+    private int[] baselines = new int[16];
+    private int blockWidth;
+    private int blockHeight;
+    private float rotatedLeft;
+    private float rotatedTop;
+    private int rotatedWidth;
+    private int rotatedHeight;
+
+    /**
+     * Create a text layout
+     *
+     * @param measurer     Measurer of the rasterizer backend
+     * @param screenWidth  Screen width texts are fitted to
+     * @param screenHeight Screen height texts are fitted to
+     */
+    public TextLayout(TextMeasurer measurer, int screenWidth, int screenHeight) {
+        this.measurer = measurer;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.lineBreaker = new LineBreaker(measurer, REFERENCE_TEXT_SIZE);
+    }
+
+    /**
+     * Lay out a text, keeps the last layout if nothing changed
+     *
+     * @param text          Text
+     * @param textSize      Text size or {@link #AUTO_FIT_TEXT_SIZE} to fit the text to the screen
+     * @param rotationAngle Rotation angle
+     * @param alignment     Alignment of the lines
+     * @param wrapMode      Word wrapping to the screen
+     */
+    public void layout(String text, float textSize, int rotationAngle, TextAlignment alignment, WrapMode wrapMode) {
+        if (laidOut && requestedTextSize == textSize && this.rotationAngle == rotationAngle
+                && this.alignment == alignment && this.wrapMode == wrapMode && this.text.equals(text)) {
+            return;
+        }
+        measureMetrics();
+
+        this.text = text;
+        this.textSize = textSize > AUTO_FIT_TEXT_SIZE ? textSize : fitTextSize(text, rotationAngle, wrapMode);
+        this.rotationAngle = rotationAngle;
+
+        //find lines and get width of longest text line
+        lineCount = findLines(text, this.textSize, rotationAngle, wrapMode);
+        measurer.setTextSize(this.textSize);
+        float textWidth = 0;
+        for (int i = 0; i < lineCount; i++) {
+            textWidth = Math.max(textWidth, measurer.measureText(text, lineStarts[i], lineEnds[i]));
+        }
+        blockWidth = (int) textWidth;
+        blockHeight = (int) getBlockHeight(this.textSize, lineCount);
+
+        //line positions, first baseline is one ascent down, then one line height per line
+        float scale = this.textSize / REFERENCE_TEXT_SIZE;
+        float ascent = referenceAscent * scale;
+        float lineHeight = (referenceAscent + referenceDescent + referenceLeading) * scale;
+        for (int i = 0; i < lineCount; i++) {
+            switch (alignment) {
+                case CENTER:
+                    lineX[i] = (blockWidth / 2) - (measurer.measureInkWidth(text, lineStarts[i], lineEnds[i]) / 2);
+                    break;
+                case RIGHT:
+                    lineX[i] = blockWidth - (int) measurer.measureText(text, lineStarts[i], lineEnds[i]);
+                    break;
+                default:
+                    lineX[i] = 0;
+                    break;
+            }
+            baselines[i] = Math.round(ascent + i * lineHeight);
+        }
+
+        //bounding box of the rotated text block, the image is sized to fit it exactly
+        double radians = Math.toRadians(rotationAngle);
+        float cos = snap((float) Math.cos(radians));
+        float sin = snap((float) Math.sin(radians));
+        float minX = Math.min(0, Math.min(blockWidth * cos, Math.min(-blockHeight * sin, blockWidth * cos - blockHeight * sin)));
+        float maxX = Math.max(0, Math.max(blockWidth * cos, Math.max(-blockHeight * sin, blockWidth * cos - blockHeight * sin)));
+        float minY = Math.min(0, Math.min(blockWidth * sin, Math.min(blockHeight * cos, blockWidth * sin + blockHeight * cos)));
+        float maxY = Math.max(0, Math.max(blockWidth * sin, Math.max(blockHeight * cos, blockWidth * sin + blockHeight * cos)));
+        rotatedLeft = minX;
+        rotatedTop = minY;
+        rotatedWidth = Math.round(maxX - minX);
+        rotatedHeight = Math.round(maxY - minY);
+
+        laidOut = true;
+        requestedTextSize = textSize;
+        this.alignment = alignment;
+        this.wrapMode = wrapMode;
+    }
+
+    /**
+     * Find the largest text size at which the rotated text fits the screen
+     * (binary search on advances measured once at a reference size, then checked with real measurements)
+     *
+     * @param text          Text
+     * @param rotationAngle Rotation angle
+     * @param wrapMode      Word wrapping to the screen
+     *
+     * @return Text size
+     */
+    public float fitTextSize(String text, int rotationAngle, WrapMode wrapMode) {
+        //line arrays are reused for fitting, the last layout is gone
+        invalidate();
+        measureMetrics();
+
+        //advances scale linearly with the text size (apart from hinting), so measure each line only once
+        int lineCount = 0;
+        float maxReferenceAdvance = 0;
+        if (wrapMode == WrapMode.NONE) {
+            lineCount = splitLines(text);
+            for (int i = 0; i < lineCount; i++) {
+                maxReferenceAdvance = Math.max(maxReferenceAdvance, getReferenceAdvance(text, lineStarts[i], lineEnds[i]));
+            }
+        }
+
+        double radians = Math.toRadians(rotationAngle);
+        float cos = Math.abs(snap((float) Math.cos(radians)));
+        float sin = Math.abs(snap((float) Math.sin(radians)));
+        float wrapWidth = getWrapWidth(cos, sin);
+
+        int low = MIN_FIT_TEXT_SIZE;
+        int high = MAX_FIT_TEXT_SIZE;
+        int best = MIN_FIT_TEXT_SIZE;
+        while (low <= high) {
+            int size = (low + high) >>> 1;
+
+            //wrapped lines depend on the size, the breaker reuses the measured words
+            if (wrapMode != WrapMode.NONE) {
+                LineBreaker.Breaks breaks = lineBreaker.breakLines(text, size, wrapWidth, wrapMode);
+                lineCount = breaks.getCount();
+                maxReferenceAdvance = breaks.getMaxReferenceWidth();
+            }
+
+            float width = maxReferenceAdvance * size / REFERENCE_TEXT_SIZE;
+            if (fits(width, getBlockHeight(size, lineCount), cos, sin)) {
+                best = size;
+                low = size + 1;
+            } else {
+                high = size - 1;
+            }
+        }
+
+        //hinting can make the real text a bit wider, step down until it really fits
+        while (best > MIN_FIT_TEXT_SIZE) {
+            lineCount = findLines(text, best, rotationAngle, wrapMode);
+            if (fits(measureMaxLineWidth(text, lineCount, best), getBlockHeight(best, lineCount), cos, sin)) {
+                break;
+            }
+            best--;
+        }
+
+        return best;
+    }
+
+    /**
+     * Forget the last layout, the next {@link #layout(String, float, int, TextAlignment, WrapMode)} measures again
+     */
+    public void invalidate() {
+        laidOut = false;
+    }
+
+    /**
+     * Get the laid out text
+     *
+     * @return Text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Get the text size (the fitted one for auto fit)
+     *
+     * @return Text size
+     */
+    public float getTextSize() {
+        return textSize;
+    }
+
+    /**
+     * Get the rotation angle
+     *
+     * @return Rotation angle
+     */
+    public int getRotationAngle() {
+        return rotationAngle;
+    }
+
+    /**
+     * Get number of lines
+     *
+     * @return Number of lines
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Get first char of a line
+     *
+     * @param line Line
+     *
+     * @return Offset into the text
+     */
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * Get end of a line (exclusive)
+     *
+     * @param line Line
+     *
+     * @return Offset into the text
+     */
+    public int getLineEnd(int line) {
+        return lineEnds[line];
+    }
+
+    /**
+     * Get x position of a line in the unrotated text block
+     *
+     * @param line Line
+     *
+     * @return X
+     */
+    public int getLineX(int line) {
+        return lineX[line];
+    }
+
+    /**
+     * Get baseline of a line in the unrotated text block
+     *
+     * @param line Line
+     *
+     * @return Y
+     */
+    public int getBaseline(int line) {
+        return baselines[line];
+    }
+
+    /**
+     * Get width of the unrotated text block
+     *
+     * @return Width
+     */
+    public int getBlockWidth() {
+        return blockWidth;
+    }
+
+    /**
+     * Get height of the unrotated text block
+     *
+     * @return Height
+     */
+    public int getBlockHeight() {
+        return blockHeight;
+    }
+
+    /**
+     * Get left edge of the rotated text block (translate by minus this to get it into the image)
+     *
+     * @return Left
+     */
+    public float getRotatedLeft() {
+        return rotatedLeft;
+    }
+
+    /**
+     * Get top edge of the rotated text block (translate by minus this to get it into the image)
+     *
+     * @return Top
+     */
+    public float getRotatedTop() {
+        return rotatedTop;
+    }
+
+    /**
+     * Get image width
+     *
+     * @return Width
+     */
+    public int getRotatedWidth() {
+        return rotatedWidth;
+    }
+
+    /**
+     * Get image height
+     *
+     * @return Height
+     */
+    public int getRotatedHeight() {
+        return rotatedHeight;
+    }
+
+    /**
+     * Check whether a text block fits the screen after rotation
+     *
+     * @param width  Unrotated width
+     * @param height Unrotated height
+     * @param cos    Absolute cosine of the rotation angle
+     * @param sin    Absolute sine of the rotation angle
+     *
+     * @return Fits?
+     */
+    private boolean fits(float width, float height, float cos, float sin) {
+        //same rounding as the image size in layout()
+        return Math.round((int) width * cos + (int) height * sin) <= screenWidth
+                && Math.round((int) width * sin + (int) height * cos) <= screenHeight;
+    }
+
+    /**
+     * Measure the longest line at a text size
+     *
+     * @param text      Text (lines already split)
+     * @param lineCount Number of lines
+     * @param textSize  Text size
+     *
+     * @return Width of the longest line
+     */
+    private float measureMaxLineWidth(String text, int lineCount, float textSize) {
+        measurer.setTextSize(textSize);
+
+        float width = 0;
+        for (int i = 0; i < lineCount; i++) {
+            width = Math.max(width, measurer.measureText(text, lineStarts[i], lineEnds[i]));
+        }
+        return width;
+    }
+
+    /**
+     * Get the advance of a line at the reference text size, measures only on first use
+     *
+     * @param text  Text
+     * @param start Line start
+     * @param end   Line end
+     *
+     * @return Advance
+     */
+    private float getReferenceAdvance(String text, int start, int end) {
+        String line = text.substring(start, end);
+
+        Float advance = referenceAdvances.get(line);
+        if (advance == null) {
+            measurer.setTextSize(REFERENCE_TEXT_SIZE);
+            advance = measurer.measureText(line, 0, line.length());
+            referenceAdvances.put(line, advance);
+        }
+        return advance;
+    }
+
+    /**
+     * Get the height of a text block: ascent of the first line to descent of the last line
+     *
+     * @param textSize  Text size
+     * @param lineCount Number of lines
+     *
+     * @return Height
+     */
+    private float getBlockHeight(float textSize, int lineCount) {
+        float scale = textSize / REFERENCE_TEXT_SIZE;
+        return ((referenceAscent + referenceDescent) * lineCount + referenceLeading * (lineCount - 1)) * scale;
+    }
+
+    /**
+     * Measure the font metrics once
+     */
+    private void measureMetrics() {
+        if (metricsMeasured) {
+            return;
+        }
+
+        measurer.setTextSize(REFERENCE_TEXT_SIZE);
+        referenceAscent = measurer.getAscent();
+        referenceDescent = measurer.getDescent();
+        referenceLeading = measurer.getLeading();
+        metricsMeasured = true;
+    }
+
+    /**
+     * Get the width lines are wrapped at: the longest line that fits the screen in the rotated direction,
+     * diagonal blocks need room for their height as well, so they are wrapped to a square
+     *
+     * @param cos Absolute cosine of the rotation angle
+     * @param sin Absolute sine of the rotation angle
+     *
+     * @return Width
+     */
+    private float getWrapWidth(float cos, float sin) {
+        if (cos > 0 && sin > 0) {
+            return Math.min(screenWidth, screenHeight) / (cos + sin);
+        }
+
+        float width = cos > 0 ? screenWidth / cos : Float.MAX_VALUE;
+        float height = sin > 0 ? screenHeight / sin : Float.MAX_VALUE;
+        return Math.min(width, height);
+    }
+
+    /**
+     * Find the lines of a text, by line breaks only or word wrapped
+     *
+     * @param text          Text
+     * @param textSize      Text size
+     * @param rotationAngle Rotation angle
+     * @param wrapMode      Word wrapping to the screen
+     *
+     * @return Number of lines
+     */
+    private int findLines(String text, float textSize, int rotationAngle, WrapMode wrapMode) {
+        if (wrapMode == WrapMode.NONE) {
+            return splitLines(text);
+        }
+
+        double radians = Math.toRadians(rotationAngle);
+        float wrapWidth = getWrapWidth(Math.abs(snap((float) Math.cos(radians))), Math.abs(snap((float) Math.sin(radians))));
+        LineBreaker.Breaks breaks = lineBreaker.breakLines(text, textSize, wrapWidth, wrapMode);
+
+        //lines are broken on scaled reference widths, hinting can make a real line wider, so break narrower until they fit
+        float breakWidth = wrapWidth;
+        for (int i = 0; i < MAX_REWRAPS; i++) {
+            float overflow = measureOverflow(text, breaks, textSize, wrapWidth);
+            if (overflow <= 1) {
+                break;
+            }
+            breakWidth /= overflow;
+            breaks = lineBreaker.breakLines(text, textSize, breakWidth, wrapMode);
+        }
+
+        int lineCount = breaks.getCount();
+        ensureLineCapacity(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lineStarts[i] = breaks.getStart(i);
+            lineEnds[i] = breaks.getEnd(i);
+        }
+        return lineCount;
+    }
+
+    /**
+     * Measure how much wrapped lines are wider than the wrap width, lines of a single word can't be broken and don't count
+     *
+     * @param text      Text
+     * @param breaks    Wrapped lines
+     * @param textSize  Text size
+     * @param wrapWidth Wrap width
+     *
+     * @return Real width of the widest breakable line relative to the wrap width (at most 1 if all lines fit)
+     */
+    private float measureOverflow(String text, LineBreaker.Breaks breaks, float textSize, float wrapWidth) {
+        measurer.setTextSize(textSize);
+
+        float overflow = 0;
+        for (int i = 0; i < breaks.getCount(); i++) {
+            int start = breaks.getStart(i);
+            int end = breaks.getEnd(i);
+            if (hasBreak(text, start, end)) {
+                overflow = Math.max(overflow, measurer.measureText(text, start, end) / wrapWidth);
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * Check whether a line could be broken: a space or tab after its first word started
+     *
+     * @param text  Text
+     * @param start Line start (may be indented)
+     * @param end   Line end
+     *
+     * @return Breakable?
+     */
+    private static boolean hasBreak(String text, int start, int end) {
+        boolean inWord = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\t') {
+                if (inWord) {
+                    return true;
+                }
+            } else {
+                inWord = true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Round sine/cosine values that are almost zero to zero, so right angles give exact bounds
+     *
+     * @param value Sine or cosine
+     *
+     * @return Snapped value
+     */
+    private static float snap(float value) {
+        return Math.abs(value) < 1e-6f ? 0 : value;
+    }
+
+    /**
+     * Find the lines of a text, same lines as text.split("\n") but without allocating
+     *
+     * @param text Text
+     *
+     * @return Number of lines
+     */
+    private int splitLines(String text) {
+        int lineCount = 0;
+        int start = 0;
+        while (true) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+
+            ensureLineCapacity(lineCount + 1);
+            lineStarts[lineCount] = start;
+            lineEnds[lineCount] = end;
+            lineCount++;
+
+            if (end == text.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        //split() drops trailing empty lines
+        while (lineCount > 1 && lineStarts[lineCount - 1] == lineEnds[lineCount - 1]) {
+            lineCount--;
+        }
+
+        return lineCount;
+    }
+
+    /**
+     * Grow line arrays if needed
+     *
+     * @param capacity Needed capacity
+     */
+    private void ensureLineCapacity(int capacity) {
+        if (capacity <= lineStarts.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, lineStarts.length * 2);
+        lineStarts = grow(lineStarts, newCapacity);
+        lineEnds = grow(lineEnds, newCapacity);
+        lineX = grow(lineX, newCapacity);
+        baselines = grow(baselines, newCapacity);
+    }
+
+    /**
+     * Copy an array into a bigger one
+     *
+     * @param array    Array
+     * @param capacity New capacity
+     *
+     * @return Bigger array
+     */
+    private static int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
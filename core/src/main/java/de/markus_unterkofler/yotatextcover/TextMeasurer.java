@@ -0,0 +1,80 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Measures text for {@link TextLayout}, implemented by each rasterizer backend with its own font engine
+ */
+public interface TextMeasurer {
+    /**
+     * Set the text size of following measurements
+     *
+     * @param textSize Text size in pixels
+     */
+    void setTextSize(float textSize);
+
+    /**
+     * Measure the advance (width incl. side bearings) of a part of a text
+     *
+     * @param text  Text
+     * @param start First char
+     * @param end   Char after the last one
+     *
+     * @return Advance in pixels
+     */
+    float measureText(String text, int start, int end);
+
+    /**
+     * Measure the width of the pixels actually covered by a part of a text
+     *
+     * @param text  Text
+     * @param start First char
+     * @param end   Char after the last one
+     *
+     * @return Ink width in pixels
+     */
+    int measureInkWidth(String text, int start, int end);
+
+    /**
+     * Get the distance from the baseline to the top of the tallest glyphs
+     *
+     * @return Ascent in pixels (positive)
+     */
+    float getAscent();
+
+    /**
+     * Get the distance from the baseline to the bottom of the lowest glyphs
+     *
+     * @return Descent in pixels (positive)
+     */
+    float getDescent();
+
+    /**
+     * Get the recommended extra space between lines
+     *
+     * @return Leading in pixels
+     */
+    float getLeading();
+}
@@ -0,0 +1,65 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Renders texts into images of a platform specific type
+ *
+ * @param <I> Image type
+ */
+public interface TextRasterizer<I> {
+    /**
+     * Render a text
+     *
+     * @param text          Text
+     * @param textSize      Text size or {@link TextLayout#AUTO_FIT_TEXT_SIZE} to fit the text to the screen
+     * @param rotationAngle Rotation angle
+     * @param alignment     Alignment of the lines
+     * @param wrapMode      Word wrapping to the screen
+     * @param outputMode    Output pixel format
+     * @param dithering     Dithering for quantized output modes
+     *
+     * @return Image
+     */
+    I render(String text, float textSize, int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering);
+
+    /**
+     * Render a text that is already laid out
+     *
+     * @param layout     Layout (measured by this rasterizer)
+     * @param outputMode Output pixel format
+     * @param dithering  Dithering for quantized output modes
+     *
+     * @return Image
+     */
+    I render(TextLayout layout, OutputMode outputMode, Dithering dithering);
+
+    /**
+     * Get the layout this rasterizer uses, holds the result of the last render
+     *
+     * @return Layout
+     */
+    TextLayout getLayout();
+}
@@ -0,0 +1,199 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Renders texts into images with java.awt, produces the same layout as the Android renderer.
+ * ARGB output is a TYPE_INT_ARGB image, alpha only output a TYPE_BYTE_GRAY image holding the alpha values.
+ * Not thread safe, use one rasterizer per thread.
+ */
+public class AwtTextRasterizer implements TextRasterizer<BufferedImage> {
+    /** Same font as on the phone: bold sans serif (which font that is depends on the host's font config) */
+    private static final Font FONT = new Font(Font.SANS_SERIF, Font.BOLD, 1);
+
+    /** Anti-aliased, fractional metrics like Android's ANTI_ALIAS_FLAG paint */
+    private final FontRenderContext fontRenderContext = new FontRenderContext(null, true, true);
+    private final TextLayout layout;
+    private final Font baseFont;
+    private final Ditherer ditherer;
+
+    private Font font;
+
+    /**
+     * Create a rasterizer
+     *
+     * @param screenWidth  Screen width texts are fitted to
+     * @param screenHeight Screen height texts are fitted to
+     */
+    public AwtTextRasterizer(int screenWidth, int screenHeight) {
+        this(screenWidth, screenHeight, new Ditherer());
+    }
+
+    /**
+     * Create a rasterizer
+     *
+     * @param screenWidth  Screen width texts are fitted to
+     * @param screenHeight Screen height texts are fitted to
+     * @param ditherer     Ditherer (e.g. a single threaded one if renders already run in parallel)
+     */
+    public AwtTextRasterizer(int screenWidth, int screenHeight, Ditherer ditherer) {
+        this(screenWidth, screenHeight, FONT, ditherer);
+    }
+
+    /**
+     * Create a rasterizer
+     *
+     * @param screenWidth  Screen width texts are fitted to
+     * @param screenHeight Screen height texts are fitted to
+     * @param baseFont     Font in any size (e.g. loaded with Font.createFont(), for the same glyphs on every host)
+     * @param ditherer     Ditherer (e.g. a single threaded one if renders already run in parallel)
+     */
+    public AwtTextRasterizer(int screenWidth, int screenHeight, Font baseFont, Ditherer ditherer) {
+        this.baseFont = baseFont;
+        this.font = baseFont;
+        this.ditherer = ditherer;
+        layout = new TextLayout(new TextMeasurer() {
+            @Override
+            public void setTextSize(float textSize) {
+                setFontSize(textSize);
+            }
+
+            @Override
+            public float measureText(String text, int start, int end) {
+                return (float) font.getStringBounds(text, start, end, fontRenderContext).getWidth();
+            }
+
+            @Override
+            public int measureInkWidth(String text, int start, int end) {
+                return font.createGlyphVector(fontRenderContext, text.substring(start, end)).getPixelBounds(fontRenderContext, 0, 0).width;
+            }
+
+            @Override
+            public float getAscent() {
+                return getLineMetrics().getAscent();
+            }
+
+            @Override
+            public float getDescent() {
+                return getLineMetrics().getDescent();
+            }
+
+            @Override
+            public float getLeading() {
+                return getLineMetrics().getLeading();
+            }
+        }, screenWidth, screenHeight);
+    }
+
+    @Override
+    public TextLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public BufferedImage render(String text, float textSize, int rotationAngle, TextAlignment alignment, WrapMode wrapMode, OutputMode outputMode, Dithering dithering) {
+        layout.layout(text, textSize, rotationAngle, alignment, wrapMode);
+        return render(layout, outputMode, dithering);
+    }
+
+    @Override
+    public BufferedImage render(TextLayout layout, OutputMode outputMode, Dithering dithering) {
+        String text = layout.getText();
+        setFontSize(layout.getTextSize());
+
+        int width = layout.getRotatedWidth();
+        int height = layout.getRotatedHeight();
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be > 0");
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            graphics.setColor(Color.WHITE);
+            graphics.setFont(font);
+
+            //rotate the graphics, so text is drawn rotated in a single pass
+            graphics.translate(-layout.getRotatedLeft(), -layout.getRotatedTop());
+            graphics.rotate(Math.toRadians(layout.getRotationAngle()));
+
+            for (int i = 0; i < layout.getLineCount(); i++) {
+                graphics.drawString(text.substring(layout.getLineStart(i), layout.getLineEnd(i)), layout.getLineX(i), layout.getBaseline(i));
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        if (!outputMode.isAlphaOnly()) {
+            return image;
+        }
+
+        //white text on transparent, so the alpha channel is all we need
+        int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        BufferedImage alphaImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] alpha = ((DataBufferByte) alphaImage.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < alpha.length; i++) {
+            alpha[i] = (byte) (argb[i] >>> 24);
+        }
+
+        //reduce grey levels if needed
+        ditherer.dither(alpha, 0, width, height, width, outputMode, dithering);
+
+        return alphaImage;
+    }
+
+    /**
+     * Get the line metrics of the current font, the same for every text
+     *
+     * @return Line metrics
+     */
+    private LineMetrics getLineMetrics() {
+        return font.getLineMetrics("", fontRenderContext);
+    }
+
+    /**
+     * Switch to another font size, reuses the current font if the size did not change
+     *
+     * @param textSize Text size in pixels
+     */
+    private void setFontSize(float textSize) {
+        if (font.getSize2D() != textSize) {
+            font = baseFont.deriveFont(textSize);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command line renderer for many covers at once, e.g. on a build server.
+ * Reads records of tab separated text, rotation angle and alignment, one per line ("\n", "\t" and "\\" escape
+ * line breaks, tabs and backslashes in the text), and writes one image per record named by its line number.
+ * Records are streamed: only a few per thread are read ahead, so memory does not grow with the input.
+ * Renders in parallel on a fork join pool, every worker thread has its own rasterizer.
+ * <p>
+ * Usage: {@code BatchRenderer [options] <records file or - for stdin>}, see {@link #USAGE}
+ */
+public class BatchRenderer {
+    private static final String USAGE = "Usage: BatchRenderer [options] <records file or - for stdin>\n"
+            + "Records: text<TAB>rotation angle<TAB>alignment (angle and alignment are optional)\n"
+            + "  --output <dir>          Output directory (default: .)\n"
+            + "  --format png|pbm        PNG in the app's grey levels or 1-bit P4 PBM (default: png)\n"
+            + "  --size <pixels>         Text size, 0 fits the text to the screen (default: 0)\n"
+            + "  --wrap <mode>           " + join(WrapMode.values()) + " (default: NONE)\n"
+            + "  --dithering <algorithm> " + join(Dithering.values()) + " (default: NONE)\n"
+            + "  --screen <width>x<height> Screen size (default: 520x960, the back screen)\n"
+            + "  --threads <count>       Parallel renders (default: number of cores)";
+
+    /** Exit codes */
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED_RECORDS = 1;
+    private static final int EXIT_USAGE = 2;
+
+    /** Records read ahead per thread, bounds the memory of queued texts and images in flight */
+    private static final int RECORDS_PER_THREAD = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Image file format
+     */
+    enum Format {
+        /** Alpha as greyscale PNG, in the levels the app renders for the dithering */
+        PNG("png"),
+        /** Packed 1-bit netpbm, white text is 0 (the back screen is black behind it) */
+        PBM("pbm");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private File outputDir = new File(".");
+    private Format format = Format.PNG;
+    private float textSize = TextLayout.AUTO_FIT_TEXT_SIZE;
+    private WrapMode wrapMode = WrapMode.NONE;
+    private Dithering dithering = Dithering.NONE;
+    private int screenWidth = 520;
+    private int screenHeight = 960;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        BatchRenderer renderer = new BatchRenderer();
+        String input;
+        try {
+            input = renderer.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(EXIT_USAGE);
+            return;
+        }
+
+        try (InputStream in = "-".equals(input) ? System.in : new FileInputStream(input)) {
+            System.exit(renderer.run(in) ? EXIT_OK : EXIT_FAILED_RECORDS);
+        } catch (IOException e) {
+            System.err.println("Reading " + input + " failed: " + e.getMessage());
+            System.exit(EXIT_FAILED_RECORDS);
+        } catch (InterruptedException e) {
+            System.exit(EXIT_FAILED_RECORDS);
+        }
+    }
+
+    /**
+     * Apply the command line options
+     *
+     * @param args Command line arguments
+     *
+     * @return Input file name ("-" for stdin)
+     *
+     * @throws IllegalArgumentException Invalid options
+     */
+    String parseArgs(String[] args) {
+        String input = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--") || arg.length() == 2) {
+                if (input != null) {
+                    throw new IllegalArgumentException("Only one input allowed: " + arg);
+                }
+                input = arg;
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--output":
+                        outputDir = new File(value);
+                        break;
+                    case "--format":
+                        format = Format.valueOf(value.toUpperCase(Locale.US));
+                        break;
+                    case "--size":
+                        textSize = Float.parseFloat(value);
+                        break;
+                    case "--wrap":
+                        wrapMode = WrapMode.valueOf(value.toUpperCase(Locale.US));
+                        break;
+                    case "--dithering":
+                        dithering = Dithering.valueOf(value.toUpperCase(Locale.US));
+                        break;
+                    case "--screen":
+                        String[] size = value.toLowerCase(Locale.US).split("x");
+                        if (size.length != 2) {
+                            throw new IllegalArgumentException("Screen size must be <width>x<height>: " + value);
+                        }
+                        screenWidth = Integer.parseInt(size[0]);
+                        screenHeight = Integer.parseInt(size[1]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (IllegalArgumentException e) {
+                //also invalid numbers and enum values
+                throw new IllegalArgumentException("Invalid " + arg + " " + value + ": " + e.getMessage(), e);
+            }
+        }
+
+        if (input == null) {
+            throw new IllegalArgumentException("Missing records file");
+        }
+        if (textSize < 0 || screenWidth <= 0 || screenHeight <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Text size, screen size and threads must be positive");
+        }
+        return input;
+    }
+
+    /**
+     * Render all records of an input
+     *
+     * @param in Records (UTF-8)
+     *
+     * @return All records rendered?
+     *
+     * @throws IOException          Reading the input failed
+     * @throws InterruptedException Interrupted while waiting for renders
+     */
+    boolean run(InputStream in) throws IOException, InterruptedException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Can't create output directory " + outputDir);
+        }
+
+        final OutputMode outputMode = getOutputMode();
+        final ThreadLocal<AwtTextRasterizer> rasterizers = new ThreadLocal<AwtTextRasterizer>() {
+            @Override
+            protected AwtTextRasterizer initialValue() {
+                //covers are rendered in parallel already, splitting one cover's dithering would only add overhead
+                return new AwtTextRasterizer(screenWidth, screenHeight, new Ditherer(1));
+            }
+        };
+
+        int maxPending = threads * RECORDS_PER_THREAD;
+        final Semaphore pending = new Semaphore(maxPending);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                final int recordLine = lineNumber;
+                final String record = line;
+                pending.acquire();
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            render(rasterizers.get(), record, recordLine, outputMode);
+                            rendered.incrementAndGet();
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            System.err.println("Line " + recordLine + ": " + e);
+                        } finally {
+                            pending.release();
+                        }
+                    }
+                });
+            }
+
+            //all renders are done once every permit is back
+            pending.acquire(maxPending);
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.err.println(rendered.get() + " covers rendered, " + failed.get() + " failed, " + millis + "ms with "
+                + threads + " threads (" + (rendered.get() * 1000L / Math.max(1, millis)) + " covers/s)");
+        return failed.get() == 0;
+    }
+
+    /**
+     * Render one record into its image file
+     *
+     * @param rasterizer Rasterizer of the calling thread
+     * @param record     Record line
+     * @param lineNumber Line number of the record, names the file
+     * @param outputMode Output mode
+     *
+     * @throws IOException Writing the image failed
+     */
+    private void render(AwtTextRasterizer rasterizer, String record, int lineNumber, OutputMode outputMode) throws IOException {
+        String[] fields = record.split("\t", -1);
+        if (fields.length > 3) {
+            throw new IllegalArgumentException("More than 3 fields, escape tabs in the text as \\t");
+        }
+        String text = unescape(fields[0]);
+        int rotationAngle = fields.length > 1 && !fields[1].isEmpty() ? Integer.parseInt(fields[1].trim()) : 0;
+        TextAlignment alignment = fields.length > 2 && !fields[2].isEmpty()
+                ? TextAlignment.valueOf(fields[2].trim().toUpperCase(Locale.US)) : TextAlignment.CENTER;
+
+        //normalized like the app's widget config
+        rotationAngle = ((rotationAngle % 360) + 360) % 360;
+
+        BufferedImage image = rasterizer.render(text, textSize, rotationAngle, alignment, wrapMode, outputMode, dithering);
+        File file = new File(outputDir, String.format(Locale.US, "cover-%06d.%s", lineNumber, format.extension));
+        if (format == Format.PBM) {
+            writePbm(image, file);
+        } else if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer");
+        }
+    }
+
+    /**
+     * Get the output mode of the format: the app's modes for PNG (see Utilities.getOutputMode()), on/off for PBM
+     *
+     * @return Output mode
+     */
+    private OutputMode getOutputMode() {
+        if (format == Format.PBM) {
+            return OutputMode.MONO;
+        }
+        return dithering == Dithering.NONE ? OutputMode.ALPHA : OutputMode.GREY_16;
+    }
+
+    /**
+     * Write an alpha image as binary PBM (P4), 8 pixels per byte, rows padded to whole bytes
+     *
+     * @param image Alpha image (TYPE_BYTE_GRAY, quantized to on/off)
+     * @param file  File
+     *
+     * @throws IOException Writing failed
+     */
+    static void writePbm(BufferedImage image, File file) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] alpha = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        int rowBytes = (width + 7) / 8;
+        byte[] row = new byte[rowBytes];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(("P4\n" + width + " " + height + "\n").getBytes(UTF_8));
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(row, (byte) 0);
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    //1 is black: everything but the text
+                    if ((alpha[offset + x] & 0xFF) < 128) {
+                        row[x >> 3] |= 0x80 >>> (x & 7);
+                    }
+                }
+                out.write(row);
+            }
+        }
+    }
+
+    /**
+     * Resolve the escapes of a record's text
+     *
+     * @param text Escaped text
+     *
+     * @return Text
+     */
+    static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                switch (next) {
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    default:
+                        builder.append(next);
+                        break;
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Join enum values for the usage text
+     *
+     * @param values Values
+     *
+     * @return Values separated by "|"
+     */
+    private static String join(Enum<?>[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (Enum<?> value : values) {
+            if (builder.length() > 0) {
+                builder.append('|');
+            }
+            builder.append(value.name());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,376 @@
+package de.markus_unterkofler.yotatextcover;
+
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Markus Unterkofler
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Golden image and performance budget regression suite, runs on any host JVM.
+ * Renders a corpus of texts at every rotation step (plus a free tilt) and alignment through the shared layout,
+ * line breaking and dithering code and compares the result against golden images.
+ * Each case also has to stay within its render time, frame bytes and allocation budgets.
+ * Render times are budgeted in multiples of a calibration render of plain java.awt text, so slow hosts get more time.
+ * <p>
+ * Texts are rendered with the bundled DejaVu Sans Bold, so goldens do not depend on the host's font config.
+ * Regenerate them after intended rendering changes with {@code ./gradlew :desktop:test -Dgolden.update=true}.
+ */
+@RunWith(Parameterized.class)
+public class RenderRegressionTest {
+    /** Back screen size in pixels */
+    private static final int SCREEN_WIDTH = 520;
+    private static final int SCREEN_HEIGHT = 960;
+
+    private static final int[] ROTATION_ANGLES = {0, 10, 45, 90, 135, 180, 225, 270, 315};
+
+    /** Max. alpha difference of a pixel and max. fraction of pixels beyond it (anti-aliasing differs a bit between JDKs) */
+    private static final int PIXEL_TOLERANCE = 32;
+    private static final float MAX_DIFFERENT_PIXELS = 0.002f;
+
+    /**
+     * Slack on the expected frame size of a case, text metrics differ a bit between JDKs.
+     * Rendering draws into an ARGB image and copies its alpha, so the peak is 5 bytes per frame pixel.
+     */
+    private static final float FRAME_SLACK = 0.02f;
+
+    /** Renders per case for the time budget, each after a calibration render, the fastest ones count */
+    private static final int TIMED_RUNS = 7;
+
+    /** Bundled font, the same glyphs on every host */
+    private static final String FONT_RESOURCE = "/fonts/DejaVuSans-Bold.ttf";
+
+    private static final boolean UPDATE_GOLDENS = Boolean.getBoolean("golden.update");
+    private static final File GOLDEN_DIR = new File(System.getProperty("golden.dir", "src/test/resources/golden"));
+    private static final File FAILURE_DIR = new File(System.getProperty("golden.failureDir", "build/golden-failures"));
+
+    /**
+     * Texts of the corpus and their budgets (render time in calibration renders, about 4 times the measured ratio,
+     * allocated bytes per render, expected frame pixels per rotation angle in the order of ROTATION_ANGLES)
+     */
+    private enum Corpus {
+        SHORT("Hello", 120, WrapMode.NONE, 15, 1024 * 1024,
+                48094, 71905, 117649, 48094, 117649, 48094, 117649, 48094, 117649),
+        LINES("Lorem ipsum\ndolor sit amet\nconsetetur", TextLayout.AUTO_FIT_TEXT_SIZE, WrapMode.NONE, 50, 2560 * 1024,
+                116164, 154960, 265225, 403854, 265225, 116164, 265225, 403854, 265225),
+        WRAPPED("The quick brown fox jumps over the lazy dog and keeps running until the screen is full",
+                TextLayout.AUTO_FIT_TEXT_SIZE, WrapMode.OPTIMAL, 15, 3072 * 1024,
+                452196, 310272, 267289, 488448, 267289, 452196, 267289, 488448, 267289),
+        UMLAUTS("Gr\u00fc\u00dfe aus K\u00f6ln\n\u00bd \u20ac \u2013 \u00df", TextLayout.AUTO_FIT_TEXT_SIZE, WrapMode.GREEDY, 50, 2560 * 1024,
+                459680, 384936, 269361, 445640, 269361, 459680, 269361, 445640, 269361);
+
+        private final String text;
+        private final float textSize;
+        private final WrapMode wrapMode;
+        private final float maxCalibrations;
+        private final long maxAllocatedBytes;
+        private final int[] framePixels;
+
+        Corpus(String text, float textSize, WrapMode wrapMode, float maxCalibrations, long maxAllocatedBytes, int... framePixels) {
+            this.text = text;
+            this.textSize = textSize;
+            this.wrapMode = wrapMode;
+            this.maxCalibrations = maxCalibrations;
+            this.maxAllocatedBytes = maxAllocatedBytes;
+            this.framePixels = framePixels;
+        }
+
+        /**
+         * Get the frame pixels a case is expected to render
+         *
+         * @param rotationAngle One of ROTATION_ANGLES
+         *
+         * @return Pixels
+         */
+        int getFramePixels(int rotationAngle) {
+            for (int i = 0; i < ROTATION_ANGLES.length; i++) {
+                if (ROTATION_ANGLES[i] == rotationAngle) {
+                    return framePixels[i];
+                }
+            }
+            throw new IllegalArgumentException("No expected frame size for " + rotationAngle + "\u00b0");
+        }
+    }
+
+    private static AwtTextRasterizer rasterizer;
+    private static Font font;
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    private final Corpus corpus;
+    private final int rotationAngle;
+    private final TextAlignment alignment;
+
+    public RenderRegressionTest(String name, Corpus corpus, int rotationAngle, TextAlignment alignment) {
+        this.corpus = corpus;
+        this.rotationAngle = rotationAngle;
+        this.alignment = alignment;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> cases() {
+        List<Object[]> cases = new ArrayList<>();
+        for (Corpus corpus : Corpus.values()) {
+            for (int rotationAngle : ROTATION_ANGLES) {
+                for (TextAlignment alignment : TextAlignment.values()) {
+                    cases.add(new Object[]{getName(corpus, rotationAngle, alignment), corpus, rotationAngle, alignment});
+                }
+            }
+        }
+        return cases;
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException, FontFormatException {
+        System.setProperty("java.awt.headless", "true");
+        try (InputStream in = RenderRegressionTest.class.getResourceAsStream(FONT_RESOURCE)) {
+            assertTrue("Font " + FONT_RESOURCE + " missing", in != null);
+            font = Font.createFont(Font.TRUETYPE_FONT, in);
+        }
+        rasterizer = new AwtTextRasterizer(SCREEN_WIDTH, SCREEN_HEIGHT, font, new Ditherer());
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        }
+
+        //warm up: class loading, font and JIT, so the first case is not charged for it
+        for (Corpus corpus : Corpus.values()) {
+            for (int i = 0; i < 3; i++) {
+                render(corpus, 0, TextAlignment.CENTER);
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            calibrate();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        rasterizer = null;
+        font = null;
+        threadBean = null;
+    }
+
+    @Test
+    public void matchesGolden() throws IOException {
+        BufferedImage image = render(corpus, rotationAngle, alignment);
+
+        File golden = new File(GOLDEN_DIR, getName() + ".png");
+        if (UPDATE_GOLDENS) {
+            if (!GOLDEN_DIR.isDirectory() && !GOLDEN_DIR.mkdirs()) {
+                throw new IOException("Could not create " + GOLDEN_DIR);
+            }
+            ImageIO.write(image, "png", golden);
+            return;
+        }
+
+        assertTrue("Golden image " + golden + " missing, create it with -Dgolden.update=true", golden.isFile());
+        BufferedImage expected = ImageIO.read(golden);
+
+        String message = compare(expected, image);
+        if (message != null) {
+            writeFailure(image);
+            fail(getName() + ": " + message);
+        }
+    }
+
+    @Test
+    public void staysWithinBudgets() {
+        //the frame itself: one byte per pixel, as big as expected for this case and never bigger than the screen
+        BufferedImage image = render(corpus, rotationAngle, alignment);
+        int frameBytes = image.getRaster().getDataBuffer().getSize();
+        int maxFrameBytes = (int) (corpus.getFramePixels(rotationAngle) * (1 + FRAME_SLACK));
+        assertTrue(getName() + ": frame of " + frameBytes + " bytes (peak " + 5 * frameBytes + " bytes), budget is "
+                + maxFrameBytes + " bytes", frameBytes <= maxFrameBytes);
+        assertTrue(getName() + ": frame of " + frameBytes + " bytes is bigger than the screen",
+                frameBytes <= SCREEN_WIDTH * SCREEN_HEIGHT);
+
+        //calibrated right next to the renders, so both see the same host load
+        long bestNanos = Long.MAX_VALUE;
+        long calibrationNanos = Long.MAX_VALUE;
+        long allocatedBytes = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            calibrationNanos = Math.min(calibrationNanos, calibrate());
+            rasterizer.getLayout().invalidate();
+            long allocatedBefore = getAllocatedBytes();
+            long startTime = System.nanoTime();
+            render(corpus, rotationAngle, alignment);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startTime);
+            allocatedBytes = Math.min(allocatedBytes, getAllocatedBytes() - allocatedBefore);
+        }
+
+        float calibrations = (float) bestNanos / calibrationNanos;
+        assertTrue(getName() + ": render took " + bestNanos / 1000 + "us, " + calibrations + " calibration renders of "
+                        + calibrationNanos / 1000 + "us, budget is " + corpus.maxCalibrations,
+                calibrations <= corpus.maxCalibrations);
+
+        Assume.assumeTrue("Allocation counting not supported by this JVM", threadBean != null);
+        assertTrue(getName() + ": render allocated " + allocatedBytes + " bytes, budget is " + corpus.maxAllocatedBytes,
+                allocatedBytes <= corpus.maxAllocatedBytes);
+    }
+
+    /**
+     * Render a case
+     *
+     * @param corpus        Text
+     * @param rotationAngle Rotation angle
+     * @param alignment     Alignment
+     *
+     * @return Alpha image
+     */
+    private static BufferedImage render(Corpus corpus, int rotationAngle, TextAlignment alignment) {
+        return rasterizer.render(corpus.text, corpus.textSize, rotationAngle, alignment, corpus.wrapMode, OutputMode.ALPHA, Dithering.NONE);
+    }
+
+    /**
+     * Fill a fixed text with plain java.awt, no code of the app involved, as the speed reference of this host
+     *
+     * @return Time in ns
+     */
+    private static long calibrate() {
+        long startTime = System.nanoTime();
+        BufferedImage image = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT / 4, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            graphics.setColor(Color.WHITE);
+            //filled as outlines, so no glyph cache makes later runs cheaper than the first
+            graphics.translate(0, 150);
+            graphics.fill(font.deriveFont(100f).createGlyphVector(graphics.getFontRenderContext(), "Calibration").getOutline());
+        } finally {
+            graphics.dispose();
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Compare an image against its golden image
+     *
+     * @param expected Golden image
+     * @param actual   Rendered image
+     *
+     * @return Failure message or null if within tolerance
+     */
+    private static String compare(BufferedImage expected, BufferedImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            return "size " + actual.getWidth() + "x" + actual.getHeight()
+                    + " differs from golden " + expected.getWidth() + "x" + expected.getHeight();
+        }
+
+        Raster expectedRaster = expected.getRaster();
+        Raster actualRaster = actual.getRaster();
+        int differentPixels = 0;
+        int maxDifference = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                int difference = Math.abs(expectedRaster.getSample(x, y, 0) - actualRaster.getSample(x, y, 0));
+                maxDifference = Math.max(maxDifference, difference);
+                if (difference > PIXEL_TOLERANCE) {
+                    differentPixels++;
+                }
+            }
+        }
+
+        int allowedPixels = (int) (actual.getWidth() * actual.getHeight() * MAX_DIFFERENT_PIXELS);
+        if (differentPixels > allowedPixels) {
+            return differentPixels + " pixels differ by more than " + PIXEL_TOLERANCE
+                    + " (max. " + maxDifference + "), " + allowedPixels + " allowed";
+        }
+        return null;
+    }
+
+    /**
+     * Keep the rendered image of a failed comparison for inspection
+     *
+     * @param image Rendered image
+     */
+    private void writeFailure(BufferedImage image) {
+        try {
+            if (FAILURE_DIR.isDirectory() || FAILURE_DIR.mkdirs()) {
+                ImageIO.write(image, "png", new File(FAILURE_DIR, getName() + ".png"));
+            }
+        } catch (IOException e) {
+            //only a debugging aid
+        }
+    }
+
+    /**
+     * Get the bytes allocated by this thread so far
+     *
+     * @return Bytes or 0 if not supported
+     */
+    private static long getAllocatedBytes() {
+        return threadBean != null ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * Get the name of this case
+     *
+     * @return Name
+     */
+    private String getName() {
+        return getName(corpus, rotationAngle, alignment);
+    }
+
+    /**
+     * Get a case name, also the golden image name
+     *
+     * @param corpus        Text
+     * @param rotationAngle Rotation angle
+     * @param alignment     Alignment
+     *
+     * @return Name
+     */
+    private static String getName(Corpus corpus, int rotationAngle, TextAlignment alignment) {
+        return corpus.name().toLowerCase() + "-" + rotationAngle + "-" + alignment.name().toLowerCase();
+    }
+}